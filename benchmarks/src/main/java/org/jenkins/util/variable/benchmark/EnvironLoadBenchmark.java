@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins project contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.util.variable.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkins.util.variable.EnvVars;
+import org.jenkins.util.variable.EnvironLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading a NUL separated dump like <tt>/proc/&lt;pid&gt;/environ</tt>, with {@link EnvironLoader}
+ * and with the usual loop that splits the text and calls {@link EnvVars#addLine(String)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvironLoadBenchmark {
+    @Param({ "50", "300", "3000" })
+    public int            baseSize;
+
+    private byte[]        data;
+    private ByteBuffer    direct;
+    private EnvironLoader loader;
+
+    @Setup
+    public void setUp() throws Exception {
+        StringBuilder buf = new StringBuilder();
+        for (Map.Entry<String, String> e : Environments.base(baseSize).entrySet())
+            buf.append(e.getKey()).append('=').append(e.getValue()).append('\0');
+        data = buf.toString().getBytes("UTF-8");
+        direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        loader = new EnvironLoader();
+    }
+
+    @Benchmark
+    public EnvVars addLine() throws Exception {
+        EnvVars env = new EnvVars();
+        for (String line : new String(data, "UTF-8").split("\0"))
+            env.addLine(line);
+        return env;
+    }
+
+    @Benchmark
+    public EnvVars loader() {
+        EnvVars env = new EnvVars();
+        loader.load(ByteBuffer.wrap(data), EnvironLoader.NUL, env);
+        return env;
+    }
+
+    @Benchmark
+    public EnvVars loaderDirect() {
+        EnvVars env = new EnvVars();
+        loader.load(direct.duplicate(), EnvironLoader.NUL, env);
+        return env;
+    }
+}
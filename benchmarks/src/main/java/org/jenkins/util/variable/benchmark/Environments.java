@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins project contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.util.variable.benchmark;
+
+import java.util.Random;
+
+import org.jenkins.util.variable.EnvVars;
+
+/**
+ * Synthetic environments for the benchmarks.
+ *
+ * <p>
+ * Everything is generated from a fixed seed, so results stay comparable across releases.
+ */
+public final class Environments {
+    private static final long SEED = 20140101L;
+
+    /**
+     * Shapes of override reference graphs.
+     */
+    public enum Shape {
+        /** a few references to the base environment and to earlier overrides, and PATH+XYZ entries */
+        REALISTIC,
+        /** every override refers to the previous one */
+        DEEP_CHAIN,
+        /** every override refers to the one at half its index, so the graph is a shallow tree */
+        FAN_IN,
+        /** groups of three overrides referring to each other in a cycle */
+        MANY_CYCLES
+    }
+
+    private Environments() {
+    }
+
+    /**
+     * Base environment with the usual variables plus <tt>size</tt> generated ones.
+     */
+    public static EnvVars base(int size) {
+        Random random = new Random(SEED);
+        EnvVars env = new EnvVars();
+        env.put("PATH", "/usr/local/bin:/usr/bin:/bin:/usr/sbin:/sbin");
+        env.put("HOME", "/home/jenkins");
+        env.put("JAVA_HOME", "/usr/lib/jvm/java");
+        env.put("WORKSPACE", "/var/lib/jenkins/workspace/job");
+        for (int i = 0; i < size; i++)
+            env.put(baseName(i), literal(random, 32));
+        return env;
+    }
+
+    /**
+     * Overrides of the given shape, to be applied over {@link #base(int)} of <tt>baseSize</tt>.
+     */
+    public static EnvVars overrides(Shape shape, int size, int baseSize) {
+        Random random = new Random(SEED);
+        EnvVars overrides = new EnvVars();
+        for (int i = 0; i < size; i++) {
+            StringBuilder value = new StringBuilder();
+            switch (shape) {
+            case REALISTIC:
+                value.append("${WORKSPACE}/").append(literal(random, 8));
+                for (int r = random.nextInt(3); r > 0 && baseSize > 0; r--)
+                    value.append(":${").append(baseName(random.nextInt(baseSize))).append('}');
+                if (i > 0 && random.nextInt(4) == 0)
+                    value.append(":$").append(overrideName(random.nextInt(i)));
+                if (i % 50 == 0)
+                    overrides.put("PATH+" + overrideName(i), "/opt/" + literal(random, 6) + "/bin");
+                break;
+            case DEEP_CHAIN:
+                value.append('x');
+                if (i > 0)
+                    value.append("${").append(overrideName(i - 1)).append('}');
+                break;
+            case FAN_IN:
+                value.append("${WORKSPACE}/v").append(i);
+                if (i > 0)
+                    value.append(":${").append(overrideName(i / 2)).append('}');
+                break;
+            case MANY_CYCLES:
+                int next = i % 3 == 2 ? i - 2 : i + 1;
+                value.append("v").append(i).append(":${").append(overrideName(Math.min(next, size - 1)))
+                    .append('}');
+                break;
+            default:
+                throw new AssertionError(shape);
+            }
+            overrides.put(overrideName(i), value.toString());
+        }
+        return overrides;
+    }
+
+    /**
+     * String with <tt>references</tt> variable references to {@link #base(int)} of
+     * <tt>baseSize</tt>, separated by literals of <tt>literalLength</tt> characters.
+     */
+    public static String template(int references, int literalLength, int baseSize) {
+        Random random = new Random(SEED);
+        StringBuilder buf = new StringBuilder(literal(random, literalLength));
+        for (int i = 0; i < references; i++) {
+            buf.append(i % 2 == 0 ? "${" + baseName(random.nextInt(baseSize)) + "}" : "${WORKSPACE}");
+            buf.append(literal(random, literalLength));
+        }
+        return buf.toString();
+    }
+
+    public static String baseName(int i) {
+        return "BASE_VAR_" + i;
+    }
+
+    public static String overrideName(int i) {
+        return "OVERRIDE_" + i;
+    }
+
+    private static String literal(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+            chars[i] = (char) ('a' + random.nextInt(26));
+        return new String(chars);
+    }
+}
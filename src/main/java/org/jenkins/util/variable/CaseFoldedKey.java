@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins project contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.util.variable;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Variable name together with its case-folded form and hash, so that names can be
+ * compared case-insensitively many times while folding them only once.
+ *
+ * <p>
+ * Two keys are equal if their names are equal ignoring case, and keys are ordered the same
+ * way {@link CaseInsensitiveComparator} orders names. {@link #toString()} returns the name
+ * as it was given.
+ */
+public final class CaseFoldedKey implements Comparable<CaseFoldedKey>, Serializable {
+    private static final long                       serialVersionUID = 1L;
+
+    /**
+     * Keys of frequently used names, looked up by their exact spelling.
+     */
+    private static final Map<String, CaseFoldedKey> COMMON           = new HashMap<String, CaseFoldedKey>();
+
+    static {
+        String[] names = { "PATH", "Path", "HOME", "USER", "USERNAME", "SHELL", "LANG", "PWD", "TMPDIR",
+                "TEMP", "TMP", "JAVA_HOME", "MAVEN_HOME", "M2_HOME", "ANT_HOME", "CLASSPATH",
+                "LD_LIBRARY_PATH", "WORKSPACE", "JENKINS_HOME", "HUDSON_HOME", "BUILD_NUMBER",
+                "BUILD_ID", "BUILD_URL", "JOB_NAME", "NODE_NAME", "EXECUTOR_NUMBER" };
+        for (String name : names)
+            COMMON.put(name, new CaseFoldedKey(name, fold(name)));
+    }
+
+    private final String                            name;
+    private final String                            folded;
+    private final int                               hash;
+
+    private CaseFoldedKey(String name, String folded) {
+        this.name = name;
+        this.folded = folded;
+        this.hash = folded.hashCode();
+    }
+
+    /**
+     * Returns the key for the given name. Frequently used names get a shared instance.
+     */
+    public static CaseFoldedKey of(String name) {
+        CaseFoldedKey key = COMMON.get(name);
+        if (key != null)
+            return key;
+        return new CaseFoldedKey(name, fold(name));
+    }
+
+    /**
+     * Returns the case-folded form of the given name, without folding it again
+     * if it is a frequently used name.
+     */
+    static String foldedName(String name) {
+        CaseFoldedKey key = COMMON.get(name);
+        return key != null ? key.folded : fold(name);
+    }
+
+    /**
+     * Folds the case of a name the same way {@link String#compareToIgnoreCase} does,
+     * so two names are equal ignoring case if and only if their folded forms are equal,
+     * and folded forms sort in {@link CaseInsensitiveComparator} order.
+     */
+    static String fold(String s) {
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (foldChar(c) != c) {
+                char[] chars = s.toCharArray();
+                for (int j = i; j < len; j++)
+                    chars[j] = foldChar(chars[j]);
+                return new String(chars);
+            }
+        }
+        return s;
+    }
+
+    static char foldChar(char c) {
+        if (c < 0x80)
+            return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * The name as it was given.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The case-folded name.
+     */
+    public String getFolded() {
+        return folded;
+    }
+
+    public int compareTo(CaseFoldedKey that) {
+        if (this == that)
+            return 0;
+        return folded.compareTo(that.folded);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof CaseFoldedKey))
+            return false;
+        CaseFoldedKey that = (CaseFoldedKey) o;
+        return hash == that.hash && folded.equals(that.folded);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
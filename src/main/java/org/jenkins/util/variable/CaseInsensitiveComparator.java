@@ -10,6 +10,8 @@ public final class CaseInsensitiveComparator implements Comparator<String>, Seri
     }
 
     public int compare(String lhs, String rhs) {
+        if (lhs == rhs)
+            return 0;
         return lhs.compareToIgnoreCase(rhs);
     }
 
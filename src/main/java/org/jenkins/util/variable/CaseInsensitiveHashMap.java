@@ -0,0 +1,974 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins project contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.util.variable;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * Case insensitive but case preserving map keyed by variable names.
+ *
+ * <p>
+ * Entries are kept in a hash table keyed by the case-folded name, so lookups cost a single
+ * hash probe instead of O(log n) {@link String#compareToIgnoreCase} calls. Iteration and the
+ * {@link NavigableMap} methods and views follow {@link CaseInsensitiveComparator} order, which
+ * is computed lazily and kept until the set of keys changes.
+ *
+ * <p>
+ * As with <tt>TreeMap</tt>, the entries seen while iterating can be changed with
+ * {@link Map.Entry#setValue}, while those returned by the navigation methods, such as
+ * {@link #ceilingEntry}, are snapshots.
+ *
+ * <p>
+ * Also like <tt>TreeMap</tt>, this class is not thread safe: it must not be modified while
+ * another thread uses it. Once filled, it can be read and iterated from many threads at the
+ * same time. The cached order is built off to the side and published as an unmodifiable
+ * list through a volatile field, so those readers never see it half built.
+ */
+public class CaseInsensitiveHashMap<V> extends AbstractMap<String, V> implements NavigableMap<String, V>,
+                                                                        Cloneable, Serializable {
+    private static final long                  serialVersionUID = 1L;
+
+    /** case-folded name to entry */
+    private transient HashMap<String, Node<V>> table            = new HashMap<String, Node<V>>();
+    /** entries in comparator order, or null if it needs to be rebuilt */
+    private transient volatile List<Node<V>>   sorted;
+    private transient int                      modCount;
+    private transient volatile View            whole;
+
+    public CaseInsensitiveHashMap() {
+    }
+
+    public CaseInsensitiveHashMap(Map<String, ? extends V> m) {
+        putAll(m);
+    }
+
+    /**
+     * Case-folded form of a key passed to {@link #get(Object)} and friends, which may also be
+     * a {@link CaseFoldedKey}. Null if the key can't be in this map.
+     */
+    static String foldKey(Object key) {
+        if (key instanceof String)
+            return CaseFoldedKey.foldedName((String) key);
+        if (key instanceof CaseFoldedKey)
+            return ((CaseFoldedKey) key).getFolded();
+        if (key == null)
+            throw new NullPointerException();
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return table.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        String f = foldKey(key);
+        return f != null && table.containsKey(f);
+    }
+
+    @Override
+    public V get(Object key) {
+        String f = foldKey(key);
+        if (f == null)
+            return null;
+        Node<V> n = table.get(f);
+        return n == null ? null : n.value;
+    }
+
+    /**
+     * Associates the value with the key. If an entry that only differs in case exists,
+     * its value is replaced and the original key is kept.
+     */
+    @Override
+    public V put(String key, V value) {
+        String f = CaseFoldedKey.foldedName(key);
+        Node<V> n = table.get(f);
+        if (n != null) {
+            V old = n.value;
+            n.value = value;
+            return old;
+        }
+        table.put(f, new Node<V>(key, f, value));
+        keysChanged();
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        String f = foldKey(key);
+        if (f == null)
+            return null;
+        Node<V> n = table.remove(f);
+        if (n == null)
+            return null;
+        keysChanged();
+        return n.value;
+    }
+
+    @Override
+    public void clear() {
+        if (!table.isEmpty()) {
+            table.clear();
+            keysChanged();
+        }
+    }
+
+    /**
+     * Returns the key of the entry for the given name as it was originally put, or null.
+     */
+    String originalKey(Object key) {
+        String f = foldKey(key);
+        if (f == null)
+            return null;
+        Node<V> n = table.get(f);
+        return n == null ? null : n.key;
+    }
+
+    /**
+     * Drops the cached order after an entry was added or removed.
+     */
+    private void keysChanged() {
+        sorted = null;
+        modCount++;
+    }
+
+    /**
+     * Changes whenever an entry is added or removed, so iterators can tell that the map
+     * was modified.
+     */
+    int keysVersion() {
+        return modCount;
+    }
+
+    /**
+     * Returns all the entries in comparator order.
+     * The returned list must not be modified, and is not modified afterwards.
+     */
+    List<Node<V>> sortedEntries() {
+        List<Node<V>> s = sorted;
+        if (s == null) {
+            List<Node<V>> l = new ArrayList<Node<V>>(table.values());
+            Collections.sort(l, ENTRY_ORDER);
+            sorted = s = Collections.unmodifiableList(l);
+        }
+        return s;
+    }
+
+    /**
+     * Index in <tt>s</tt> of the first entry whose key is greater than the given folded key,
+     * or not less than it if <tt>inclusive</tt>.
+     */
+    static int bound(List<? extends Map.Entry<String, ?>> s, String folded, boolean inclusive) {
+        int lo = 0, hi = s.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = foldedKeyOf(s.get(mid)).compareTo(folded);
+            if (c < 0 || (c == 0 && !inclusive))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private View whole() {
+        View w = whole;
+        if (w == null)
+            whole = w = new View(null, false, null, false, false);
+        return w;
+    }
+
+    @Override
+    public Set<Map.Entry<String, V>> entrySet() {
+        return whole().entrySet();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return whole().navigableKeySet();
+    }
+
+    public NavigableSet<String> navigableKeySet() {
+        return whole().navigableKeySet();
+    }
+
+    public NavigableSet<String> descendingKeySet() {
+        return whole().descendingKeySet();
+    }
+
+    public NavigableMap<String, V> descendingMap() {
+        return whole().descendingMap();
+    }
+
+    public Comparator<? super String> comparator() {
+        return CaseInsensitiveComparator.INSTANCE;
+    }
+
+    public String firstKey() {
+        return whole().firstKey();
+    }
+
+    public String lastKey() {
+        return whole().lastKey();
+    }
+
+    public Map.Entry<String, V> firstEntry() {
+        return whole().firstEntry();
+    }
+
+    public Map.Entry<String, V> lastEntry() {
+        return whole().lastEntry();
+    }
+
+    public Map.Entry<String, V> pollFirstEntry() {
+        return whole().pollFirstEntry();
+    }
+
+    public Map.Entry<String, V> pollLastEntry() {
+        return whole().pollLastEntry();
+    }
+
+    public Map.Entry<String, V> lowerEntry(String key) {
+        return whole().lowerEntry(key);
+    }
+
+    public String lowerKey(String key) {
+        return whole().lowerKey(key);
+    }
+
+    public Map.Entry<String, V> floorEntry(String key) {
+        return whole().floorEntry(key);
+    }
+
+    public String floorKey(String key) {
+        return whole().floorKey(key);
+    }
+
+    public Map.Entry<String, V> ceilingEntry(String key) {
+        return whole().ceilingEntry(key);
+    }
+
+    public String ceilingKey(String key) {
+        return whole().ceilingKey(key);
+    }
+
+    public Map.Entry<String, V> higherEntry(String key) {
+        return whole().higherEntry(key);
+    }
+
+    public String higherKey(String key) {
+        return whole().higherKey(key);
+    }
+
+    public NavigableMap<String, V> subMap(String fromKey, boolean fromInclusive, String toKey, boolean toInclusive) {
+        return whole().subMap(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    public NavigableMap<String, V> headMap(String toKey, boolean inclusive) {
+        return whole().headMap(toKey, inclusive);
+    }
+
+    public NavigableMap<String, V> tailMap(String fromKey, boolean inclusive) {
+        return whole().tailMap(fromKey, inclusive);
+    }
+
+    public SortedMap<String, V> subMap(String fromKey, String toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    public SortedMap<String, V> headMap(String toKey) {
+        return headMap(toKey, false);
+    }
+
+    public SortedMap<String, V> tailMap(String fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object clone() {
+        CaseInsensitiveHashMap<V> r;
+        try {
+            r = (CaseInsensitiveHashMap<V>) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        r.table = new HashMap<String, Node<V>>();
+        r.sorted = null;
+        r.modCount = 0;
+        r.whole = null;
+        for (Map.Entry<String, V> e : sortedEntries()) {
+            String f = foldedKeyOf(e);
+            r.table.put(f, new Node<V>(e.getKey(), f, e.getValue()));
+        }
+        return r;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        List<Node<V>> s = sortedEntries();
+        out.writeInt(s.size());
+        for (Map.Entry<String, V> e : s) {
+            out.writeObject(e.getKey());
+            out.writeObject(e.getValue());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        table = new HashMap<String, Node<V>>();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            String key = (String) in.readObject();
+            String f = CaseFoldedKey.foldedName(key);
+            table.put(f, new Node<V>(key, f, (V) in.readObject()));
+        }
+    }
+
+    /**
+     * Called for streams that have no data for this class, such as those written when
+     * {@link EnvVars} extended <tt>TreeMap</tt>. Their entries are skipped before this class can
+     * see them, so fail rather than return an empty map.
+     */
+    private void readObjectNoData() throws ObjectStreamException {
+        throw new InvalidObjectException("No entries in the stream for " + getClass().getName()
+                                         + "; it was probably written by a version before 2.0");
+    }
+
+    /**
+     * Case-folded key of an entry, reusing the folded form kept by {@link Node}.
+     */
+    static String foldedKeyOf(Map.Entry<String, ?> e) {
+        if (e instanceof Node)
+            return ((Node<?>) e).folded;
+        return CaseFoldedKey.foldedName(e.getKey());
+    }
+
+    private static final Comparator<Map.Entry<String, ?>> ENTRY_ORDER = new Comparator<Map.Entry<String, ?>>() {
+        public int compare(Map.Entry<String, ?> lhs, Map.Entry<String, ?> rhs) {
+            return foldedKeyOf(lhs).compareTo(foldedKeyOf(rhs));
+        }
+    };
+
+    static class Node<V> implements Map.Entry<String, V> {
+        private final String key;
+        private final String folded;
+        private V            value;
+
+        Node(String key, String folded, V value) {
+            this.key = key;
+            this.folded = folded;
+            this.value = value;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        public V setValue(V value) {
+            V old = this.value;
+            this.value = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            V v = getValue();
+            return key.equals(e.getKey()) && (v == null ? e.getValue() == null : v.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            V v = getValue();
+            return key.hashCode() ^ (v == null ? 0 : v.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+
+    /**
+     * Live view of the entries between two bounds, in ascending or descending order. Null bounds
+     * are open. The whole map is the ascending view without bounds; the others are returned by
+     * {@link #subMap}, {@link #headMap}, {@link #tailMap} and {@link #descendingMap}.
+     */
+    private final class View extends AbstractMap<String, V> implements NavigableMap<String, V> {
+        private final String  lo;
+        private final boolean loInclusive;
+        private final String  hi;
+        private final boolean hiInclusive;
+        private final boolean descending;
+        /** folded bounds */
+        private final String  loFolded;
+        private final String  hiFolded;
+
+        View(String lo, boolean loInclusive, String hi, boolean hiInclusive, boolean descending) {
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+            this.descending = descending;
+            this.loFolded = lo == null ? null : CaseFoldedKey.foldedName(lo);
+            this.hiFolded = hi == null ? null : CaseFoldedKey.foldedName(hi);
+        }
+
+        private boolean isWhole() {
+            return lo == null && hi == null;
+        }
+
+        /**
+         * Index in <tt>s</tt> of the first entry in range.
+         */
+        int from(List<Node<V>> s) {
+            return lo == null ? 0 : bound(s, loFolded, loInclusive);
+        }
+
+        /**
+         * Index in <tt>s</tt> after the last entry in range, not less than <tt>from</tt>.
+         */
+        int to(List<Node<V>> s, int from) {
+            return hi == null ? s.size() : Math.max(from, bound(s, hiFolded, !hiInclusive));
+        }
+
+        boolean inRange(String key) {
+            String f = CaseFoldedKey.foldedName(key);
+            if (loFolded != null) {
+                int c = f.compareTo(loFolded);
+                if (c < 0 || (c == 0 && !loInclusive))
+                    return false;
+            }
+            if (hiFolded != null) {
+                int c = f.compareTo(hiFolded);
+                if (c > 0 || (c == 0 && !hiInclusive))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * True if the key is in range, counting the bounds as inclusive unless <tt>inclusive</tt> is
+         * set. Bounds of views of this view must pass this test.
+         */
+        private boolean inRange(String key, boolean inclusive) {
+            if (inclusive)
+                return inRange(key);
+            String f = CaseFoldedKey.foldedName(key);
+            return (loFolded == null || f.compareTo(loFolded) >= 0)
+                   && (hiFolded == null || f.compareTo(hiFolded) <= 0);
+        }
+
+        @Override
+        public int size() {
+            if (isWhole())
+                return CaseInsensitiveHashMap.this.size();
+            List<Node<V>> s = sortedEntries();
+            int from = from(s);
+            return to(s, from) - from;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && inRange((String) key) && CaseInsensitiveHashMap.this.containsKey(key);
+        }
+
+        @Override
+        public V get(Object key) {
+            if (!(key instanceof String) || !inRange((String) key))
+                return null;
+            return CaseInsensitiveHashMap.this.get(key);
+        }
+
+        @Override
+        public V put(String key, V value) {
+            if (!inRange(key))
+                throw new IllegalArgumentException("key out of range");
+            return CaseInsensitiveHashMap.this.put(key, value);
+        }
+
+        @Override
+        public V remove(Object key) {
+            if (!(key instanceof String) || !inRange((String) key))
+                return null;
+            return CaseInsensitiveHashMap.this.remove(key);
+        }
+
+        @Override
+        public void clear() {
+            if (isWhole())
+                CaseInsensitiveHashMap.this.clear();
+            else
+                super.clear();
+        }
+
+        @Override
+        public Set<Map.Entry<String, V>> entrySet() {
+            return new EntrySet(this);
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return navigableKeySet();
+        }
+
+        public KeySet navigableKeySet() {
+            return new KeySet(this);
+        }
+
+        public KeySet descendingKeySet() {
+            return descendingMap().navigableKeySet();
+        }
+
+        public View descendingMap() {
+            return new View(lo, loInclusive, hi, hiInclusive, !descending);
+        }
+
+        public Comparator<? super String> comparator() {
+            return descending ? Collections.reverseOrder(CaseInsensitiveComparator.INSTANCE)
+                    : CaseInsensitiveComparator.INSTANCE;
+        }
+
+        /**
+         * Index of the first (<tt>last</tt> false) or last entry in range in ascending order, or -1.
+         */
+        private int end(boolean last) {
+            List<Node<V>> s = sortedEntries();
+            int from = from(s);
+            int to = to(s, from);
+            if (from == to)
+                return -1;
+            return last ? to - 1 : from;
+        }
+
+        /**
+         * Index of the least entry in range whose key is greater than the given key, or not less
+         * than it if <tt>inclusive</tt>, in ascending order; -1 if there is none.
+         */
+        private int ascendingAbove(List<Node<V>> s, String key, boolean inclusive) {
+            int from = from(s);
+            int i = Math.max(from, bound(s, CaseFoldedKey.foldedName(key), inclusive));
+            return i < to(s, from) ? i : -1;
+        }
+
+        /**
+         * Index of the greatest entry in range whose key is less than the given key, or not greater
+         * than it if <tt>inclusive</tt>, in ascending order; -1 if there is none.
+         */
+        private int ascendingBelow(List<Node<V>> s, String key, boolean inclusive) {
+            int from = from(s);
+            int i = Math.min(to(s, from), bound(s, CaseFoldedKey.foldedName(key), !inclusive)) - 1;
+            return i >= from ? i : -1;
+        }
+
+        /**
+         * Entry following the given key in the order of this view, or preceding it if <tt>before</tt>.
+         */
+        private Map.Entry<String, V> near(String key, boolean before, boolean inclusive) {
+            if (key == null)
+                throw new NullPointerException();
+            List<Node<V>> s = sortedEntries();
+            int i = before != descending ? ascendingBelow(s, key, inclusive) : ascendingAbove(s, key, inclusive);
+            return i < 0 ? null : snapshot(s.get(i));
+        }
+
+        private Map.Entry<String, V> snapshot(Map.Entry<String, V> e) {
+            return new AbstractMap.SimpleImmutableEntry<String, V>(e);
+        }
+
+        private String keyOf(Map.Entry<String, V> e) {
+            return e == null ? null : e.getKey();
+        }
+
+        public Map.Entry<String, V> firstEntry() {
+            int i = end(descending);
+            return i < 0 ? null : snapshot(sortedEntries().get(i));
+        }
+
+        public Map.Entry<String, V> lastEntry() {
+            int i = end(!descending);
+            return i < 0 ? null : snapshot(sortedEntries().get(i));
+        }
+
+        public String firstKey() {
+            Map.Entry<String, V> e = firstEntry();
+            if (e == null)
+                throw new NoSuchElementException();
+            return e.getKey();
+        }
+
+        public String lastKey() {
+            Map.Entry<String, V> e = lastEntry();
+            if (e == null)
+                throw new NoSuchElementException();
+            return e.getKey();
+        }
+
+        public Map.Entry<String, V> pollFirstEntry() {
+            Map.Entry<String, V> e = firstEntry();
+            if (e != null)
+                CaseInsensitiveHashMap.this.remove(e.getKey());
+            return e;
+        }
+
+        public Map.Entry<String, V> pollLastEntry() {
+            Map.Entry<String, V> e = lastEntry();
+            if (e != null)
+                CaseInsensitiveHashMap.this.remove(e.getKey());
+            return e;
+        }
+
+        public Map.Entry<String, V> lowerEntry(String key) {
+            return near(key, true, false);
+        }
+
+        public String lowerKey(String key) {
+            return keyOf(lowerEntry(key));
+        }
+
+        public Map.Entry<String, V> floorEntry(String key) {
+            return near(key, true, true);
+        }
+
+        public String floorKey(String key) {
+            return keyOf(floorEntry(key));
+        }
+
+        public Map.Entry<String, V> ceilingEntry(String key) {
+            return near(key, false, true);
+        }
+
+        public String ceilingKey(String key) {
+            return keyOf(ceilingEntry(key));
+        }
+
+        public Map.Entry<String, V> higherEntry(String key) {
+            return near(key, false, false);
+        }
+
+        public String higherKey(String key) {
+            return keyOf(higherEntry(key));
+        }
+
+        /**
+         * Returns the view between the given bounds in ascending order, keeping the bounds of this
+         * view where a new one is null.
+         */
+        private View range(String newLo, boolean newLoInclusive, String newHi, boolean newHiInclusive, boolean desc) {
+            if (newLo != null && !inRange(newLo, newLoInclusive))
+                throw new IllegalArgumentException("fromKey out of range");
+            if (newHi != null && !inRange(newHi, newHiInclusive))
+                throw new IllegalArgumentException("toKey out of range");
+            if (newLo != null && newHi != null && CaseInsensitiveComparator.INSTANCE.compare(newLo, newHi) > 0)
+                throw new IllegalArgumentException("fromKey > toKey");
+            if (newLo == null) {
+                newLo = lo;
+                newLoInclusive = loInclusive;
+            }
+            if (newHi == null) {
+                newHi = hi;
+                newHiInclusive = hiInclusive;
+            }
+            return new View(newLo, newLoInclusive, newHi, newHiInclusive, desc);
+        }
+
+        public View subMap(String fromKey, boolean fromInclusive, String toKey, boolean toInclusive) {
+            if (fromKey == null || toKey == null)
+                throw new NullPointerException();
+            if (descending)
+                return range(toKey, toInclusive, fromKey, fromInclusive, true);
+            return range(fromKey, fromInclusive, toKey, toInclusive, false);
+        }
+
+        public View headMap(String toKey, boolean inclusive) {
+            if (toKey == null)
+                throw new NullPointerException();
+            if (descending)
+                return range(toKey, inclusive, null, false, true);
+            return range(null, false, toKey, inclusive, false);
+        }
+
+        public View tailMap(String fromKey, boolean inclusive) {
+            if (fromKey == null)
+                throw new NullPointerException();
+            if (descending)
+                return range(null, false, fromKey, inclusive, true);
+            return range(fromKey, inclusive, null, false, false);
+        }
+
+        public SortedMap<String, V> subMap(String fromKey, String toKey) {
+            return subMap(fromKey, true, toKey, false);
+        }
+
+        public SortedMap<String, V> headMap(String toKey) {
+            return headMap(toKey, false);
+        }
+
+        public SortedMap<String, V> tailMap(String fromKey) {
+            return tailMap(fromKey, true);
+        }
+    }
+
+    /**
+     * Iterates over the entries of a view, as they were when the iterator was created.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<String, V>> {
+        private final List<Node<V>>  s                = sortedEntries();
+        private final int            step;
+        private final int            end;
+        private int                  next;
+        private Map.Entry<String, V> last;
+        private int                  expectedModCount = keysVersion();
+
+        EntryIterator(View view) {
+            int from = view.from(s);
+            int to = view.to(s, from);
+            step = view.descending ? -1 : 1;
+            next = view.descending ? to - 1 : from;
+            end = view.descending ? from - 1 : to;
+        }
+
+        public boolean hasNext() {
+            return next != end;
+        }
+
+        public Map.Entry<String, V> next() {
+            if (keysVersion() != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (next == end)
+                throw new NoSuchElementException();
+            last = s.get(next);
+            next += step;
+            return last;
+        }
+
+        public void remove() {
+            if (last == null)
+                throw new IllegalStateException();
+            if (keysVersion() != expectedModCount)
+                throw new ConcurrentModificationException();
+            CaseInsensitiveHashMap.this.remove(last.getKey());
+            expectedModCount = keysVersion();
+            last = null;
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, V>> {
+        private final View view;
+
+        EntrySet(View view) {
+            this.view = view;
+        }
+
+        @Override
+        public int size() {
+            return view.size();
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, V>> iterator() {
+            return new EntryIterator(view);
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            if (!(e.getKey() instanceof String) || !view.containsKey(e.getKey()))
+                return false;
+            V v = get(e.getKey());
+            return v == null ? e.getValue() == null : v.equals(e.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!contains(o))
+                return false;
+            CaseInsensitiveHashMap.this.remove(((Map.Entry<?, ?>) o).getKey());
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            view.clear();
+        }
+    }
+
+    /**
+     * Keys of a view, as returned by {@link #navigableKeySet()} and friends.
+     */
+    private final class KeySet extends AbstractSet<String> implements NavigableSet<String> {
+        private final View view;
+
+        KeySet(View view) {
+            this.view = view;
+        }
+
+        @Override
+        public int size() {
+            return view.size();
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            final Iterator<Map.Entry<String, V>> it = new EntryIterator(view);
+            return new Iterator<String>() {
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                public String next() {
+                    return it.next().getKey();
+                }
+
+                public void remove() {
+                    it.remove();
+                }
+            };
+        }
+
+        public Iterator<String> descendingIterator() {
+            return descendingSet().iterator();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return view.containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!view.containsKey(o))
+                return false;
+            view.remove(o);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            view.clear();
+        }
+
+        public Comparator<? super String> comparator() {
+            return view.comparator();
+        }
+
+        public String first() {
+            return view.firstKey();
+        }
+
+        public String last() {
+            return view.lastKey();
+        }
+
+        public String lower(String key) {
+            return view.lowerKey(key);
+        }
+
+        public String floor(String key) {
+            return view.floorKey(key);
+        }
+
+        public String ceiling(String key) {
+            return view.ceilingKey(key);
+        }
+
+        public String higher(String key) {
+            return view.higherKey(key);
+        }
+
+        public String pollFirst() {
+            return view.keyOf(view.pollFirstEntry());
+        }
+
+        public String pollLast() {
+            return view.keyOf(view.pollLastEntry());
+        }
+
+        public NavigableSet<String> descendingSet() {
+            return view.descendingKeySet();
+        }
+
+        public NavigableSet<String> subSet(String fromElement, boolean fromInclusive, String toElement,
+                                           boolean toInclusive) {
+            return view.subMap(fromElement, fromInclusive, toElement, toInclusive).navigableKeySet();
+        }
+
+        public NavigableSet<String> headSet(String toElement, boolean inclusive) {
+            return view.headMap(toElement, inclusive).navigableKeySet();
+        }
+
+        public NavigableSet<String> tailSet(String fromElement, boolean inclusive) {
+            return view.tailMap(fromElement, inclusive).navigableKeySet();
+        }
+
+        public SortedSet<String> subSet(String fromElement, String toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        public SortedSet<String> headSet(String toElement) {
+            return headSet(toElement, false);
+        }
+
+        public SortedSet<String> tailSet(String fromElement) {
+            return tailSet(fromElement, true);
+        }
+    }
+}
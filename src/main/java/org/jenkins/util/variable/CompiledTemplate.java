@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins project contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.util.variable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A string parsed once into literal and variable segments, so that it can be
+ * expanded many times without scanning it again.
+ *
+ * <p>
+ * Rendering follows {@link Util#replaceMacro(String, VariableResolver)}: "$$" becomes "$"
+ * and undefined variables are left as-is.
+ */
+public final class CompiledTemplate {
+    /** Templates longer than this are not kept in the cache. */
+    private static final int                   MAX_CACHED_LENGTH = 4096;
+
+    private static final TemplateCache         CACHE             = new TemplateCache(1024);
+
+    private final String                       source;
+    /** literals[i] precedes names[i]; the last literal follows the last name. */
+    private final String[]                     literals;
+    private final String[]                     names;
+    /** The reference as written, used when the variable is undefined. */
+    private final String[]                     references;
+
+    private CompiledTemplate(String source, String[] literals, String[] names, String[] references) {
+        this.source = source;
+        this.literals = literals;
+        this.names = names;
+        this.references = references;
+    }
+
+    /**
+     * Parses the given string.
+     */
+    public static CompiledTemplate compile(String s) {
+        if (s == null)
+            throw new IllegalArgumentException("Template must not be null");
+
+        List<String> literals = new ArrayList<String>();
+        List<String> names = new ArrayList<String>();
+        List<String> references = new ArrayList<String>();
+
+        int len = s.length();
+        StringBuilder literal = new StringBuilder();
+        int copied = 0;
+        int idx = s.indexOf('$');
+        while (idx >= 0) {
+            int end = Util.scanMacro(s, idx, len, true);
+            if (end < 0) {
+                idx = s.indexOf('$', idx + 1);
+                continue;
+            }
+            literal.append(s, copied, idx);
+            if (s.charAt(idx + 1) == '$') {
+                literal.append('$');
+            } else {
+                literals.add(literal.toString());
+                literal.setLength(0);
+                names.add(Util.macroName(s, idx, end));
+                references.add(s.substring(idx, end));
+            }
+            copied = end;
+            idx = s.indexOf('$', end);
+        }
+        literal.append(s, copied, len);
+        literals.add(literal.toString());
+
+        return new CompiledTemplate(s, literals.toArray(new String[literals.size()]),
+            names.toArray(new String[names.size()]),
+            references.toArray(new String[references.size()]));
+    }
+
+    /**
+     * Returns the parsed form of the given string, reusing a previously parsed one if possible.
+     */
+    public static CompiledTemplate of(String s) {
+        if (s == null)
+            throw new IllegalArgumentException("Template must not be null");
+        if (s.length() > MAX_CACHED_LENGTH)
+            return compile(s);
+
+        CompiledTemplate t = CACHE.get(s);
+        if (t == null)
+            t = CACHE.put(s, compile(s));
+        return t;
+    }
+
+    /**
+     * Expands this template against the given resolver.
+     */
+    public String render(VariableResolver<String> resolver) {
+        if (names.length == 0)
+            return literals[0];
+
+        StringBuilder buf = new StringBuilder(source.length() + 16);
+        renderTo(buf, resolver);
+        return buf.toString();
+    }
+
+    /**
+     * Expands this template against the given variables.
+     */
+    public String render(Map<String, String> variables) {
+        return render(new VariableResolver.ByMap<String>(variables));
+    }
+
+    /**
+     * Expands this template against the given resolver, appending the result to <tt>buf</tt>.
+     */
+    public void renderTo(StringBuilder buf, VariableResolver<String> resolver) {
+        for (int i = 0; i < names.length; i++) {
+            buf.append(literals[i]);
+            String value = resolver.resolve(names[i]);
+            buf.append(value != null ? value : references[i]);
+        }
+        buf.append(literals[names.length]);
+    }
+
+    /**
+     * Names of the variables referred from this template, in order of appearance.
+     */
+    public List<String> getVariableNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    /**
+     * True if this template refers to no variable.
+     */
+    public boolean isConstant() {
+        return names.length == 0;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    /**
+     * Cache of parsed templates keyed by their source string, which many threads can read
+     * without locking. Once it is full, arbitrary entries are dropped until it is a quarter
+     * below its capacity, so it only approximates keeping the templates that are in use.
+     */
+    private static final class TemplateCache {
+        private final int                                     capacity;
+        private final ConcurrentMap<String, CompiledTemplate> map;
+        private final AtomicInteger                           size = new AtomicInteger();
+
+        TemplateCache(int capacity) {
+            this.capacity = capacity;
+            this.map = new ConcurrentHashMap<String, CompiledTemplate>(capacity * 4 / 3 + 1);
+        }
+
+        CompiledTemplate get(String s) {
+            return map.get(s);
+        }
+
+        /**
+         * Adds the template unless another thread did first.
+         *
+         * @return the template now in the cache for <tt>s</tt>.
+         */
+        CompiledTemplate put(String s, CompiledTemplate t) {
+            CompiledTemplate existing = map.putIfAbsent(s, t);
+            if (existing != null)
+                return existing;
+            if (size.incrementAndGet() > capacity)
+                evict();
+            return t;
+        }
+
+        private void evict() {
+            int target = capacity - capacity / 4;
+            Iterator<String> it = map.keySet().iterator();
+            while (size.get() > target && it.hasNext()) {
+                if (map.remove(it.next()) != null)
+                    size.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins project contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.util.variable;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Environment variables that can be shared between threads without locking.
+ *
+ * <p>
+ * The current contents are an immutable {@link PersistentEnvVars} snapshot, published through
+ * an atomic reference. Reads, iteration and {@link #expand(String)} work on one snapshot, so
+ * they never block and always see a consistent environment. Writes build the next snapshot,
+ * which only copies the path to the changed entries, and publish it with a compare-and-set;
+ * writers never wait for each other, and one that loses a race retries on the newer snapshot.
+ * {@link #putAll}, {@link #override}, {@link #overrideAll} and {@link #overrideExpandingAll}
+ * publish all their changes at once.
+ *
+ * <p>
+ * Like {@link EnvVars}, names are case insensitive but case preserving.
+ */
+public final class ConcurrentEnvVars extends AbstractMap<String, String> implements
+        ConcurrentMap<String, String>, VariableResolver<String>, Serializable {
+    private static final long                        serialVersionUID = 1L;
+
+    private final AtomicReference<PersistentEnvVars> current;
+
+    public ConcurrentEnvVars() {
+        this(PersistentEnvVars.EMPTY);
+    }
+
+    public ConcurrentEnvVars(Map<String, String> m) {
+        current = new AtomicReference<PersistentEnvVars>(PersistentEnvVars.of(m));
+    }
+
+    /**
+     * Returns the current contents, which later changes don't affect.
+     */
+    public PersistentEnvVars snapshot() {
+        return current.get();
+    }
+
+    /**
+     * Changes the contents to the result of the given function applied to the current
+     * snapshot. The function may be called more than once if other threads publish
+     * changes in the meantime, so it must not have side effects.
+     *
+     * @return the snapshot the change was applied to.
+     */
+    PersistentEnvVars update(Update update) {
+        while (true) {
+            PersistentEnvVars before = current.get();
+            PersistentEnvVars after = update.apply(before);
+            if (after == before || current.compareAndSet(before, after))
+                return before;
+        }
+    }
+
+    /**
+     * Change made by {@link ConcurrentEnvVars#update(Update)}.
+     */
+    interface Update {
+        PersistentEnvVars apply(PersistentEnvVars env);
+    }
+
+    @Override
+    public int size() {
+        return current.get().size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return current.get().containsKey(key);
+    }
+
+    @Override
+    public String get(Object key) {
+        return current.get().get(key);
+    }
+
+    public String resolve(String name) {
+        return get(name);
+    }
+
+    /**
+     * Expands the variables in the given string against one snapshot.
+     */
+    public String expand(String s) {
+        return current.get().expand(s);
+    }
+
+    @Override
+    public String put(final String key, final String value) {
+        return update(new Update() {
+            public PersistentEnvVars apply(PersistentEnvVars env) {
+                return env.with(key, value);
+            }
+        }).get(key);
+    }
+
+    public String putIfAbsent(final String key, final String value) {
+        return update(new Update() {
+            public PersistentEnvVars apply(PersistentEnvVars env) {
+                return env.containsKey(key) ? env : env.with(key, value);
+            }
+        }).get(key);
+    }
+
+    @Override
+    public String remove(final Object key) {
+        if (!(key instanceof String))
+            return null;
+        return update(new Update() {
+            public PersistentEnvVars apply(PersistentEnvVars env) {
+                return env.without((String) key);
+            }
+        }).get(key);
+    }
+
+    public boolean remove(final Object key, final Object value) {
+        if (!(key instanceof String) || value == null)
+            return false;
+        return value.equals(update(new Update() {
+            public PersistentEnvVars apply(PersistentEnvVars env) {
+                return value.equals(env.get(key)) ? env.without((String) key) : env;
+            }
+        }).get(key));
+    }
+
+    public String replace(final String key, final String value) {
+        return update(new Update() {
+            public PersistentEnvVars apply(PersistentEnvVars env) {
+                return env.containsKey(key) ? env.with(key, value) : env;
+            }
+        }).get(key);
+    }
+
+    public boolean replace(final String key, final String oldValue, final String newValue) {
+        if (oldValue == null)
+            return false;
+        return oldValue.equals(update(new Update() {
+            public PersistentEnvVars apply(PersistentEnvVars env) {
+                return oldValue.equals(env.get(key)) ? env.with(key, newValue) : env;
+            }
+        }).get(key));
+    }
+
+    /**
+     * Puts all the entries at once.
+     */
+    @Override
+    public void putAll(final Map<? extends String, ? extends String> m) {
+        update(new Update() {
+            public PersistentEnvVars apply(PersistentEnvVars env) {
+                for (Map.Entry<? extends String, ? extends String> e : m.entrySet())
+                    env = env.with(e.getKey(), e.getValue());
+                return env;
+            }
+        });
+    }
+
+    /**
+     * Removes all entries, keeping the path separator and the {@link #isEnableEmpty()} setting.
+     */
+    @Override
+    public void clear() {
+        update(new Update() {
+            public PersistentEnvVars apply(PersistentEnvVars env) {
+                return PersistentEnvVars.EMPTY.withPathSeparator(env.getPathSeparator())
+                    .withEnableEmpty(env.isEnableEmpty());
+            }
+        });
+    }
+
+    public char getPathSeparator() {
+        return current.get().getPathSeparator();
+    }
+
+    /**
+     * Sets the separator used to join <tt>PATH+XYZ</tt> values. See {@link EnvVars#setPathSeparator(char)}.
+     */
+    public void setPathSeparator(final char pathSeparator) {
+        update(new Update() {
+            public PersistentEnvVars apply(PersistentEnvVars env) {
+                return env.withPathSeparator(pathSeparator);
+            }
+        });
+    }
+
+    public boolean isEnableEmpty() {
+        return current.get().isEnableEmpty();
+    }
+
+    /**
+     * Sets whether {@link #override} keeps empty values. See {@link EnvVars#setEnableEmpty(boolean)}.
+     */
+    public void setEnableEmpty(final boolean enableEmpty) {
+        update(new Update() {
+            public PersistentEnvVars apply(PersistentEnvVars env) {
+                return env.withEnableEmpty(enableEmpty);
+            }
+        });
+    }
+
+    /**
+     * See {@link EnvVars#override(String, String)}.
+     */
+    public void override(final String key, final String value) {
+        update(new Update() {
+            public PersistentEnvVars apply(PersistentEnvVars env) {
+                return env.override(key, value);
+            }
+        });
+    }
+
+    /**
+     * Overrides all values at once. See {@link EnvVars#overrideAll(Map)}.
+     * @return this
+     */
+    public ConcurrentEnvVars overrideAll(final Map<String, String> all) {
+        update(new Update() {
+            public PersistentEnvVars apply(PersistentEnvVars env) {
+                return env.overrideAll(all);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Overrides all values at once, expanding them against the snapshot being changed.
+     * See {@link EnvVars#overrideExpandingAll(Map)}.
+     * @return this
+     */
+    public ConcurrentEnvVars overrideExpandingAll(final Map<String, String> all) {
+        update(new Update() {
+            public PersistentEnvVars apply(PersistentEnvVars env) {
+                return env.overrideExpandingAll(all);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Returns a mutable copy of the current contents.
+     */
+    public EnvVars toEnvVars() {
+        return current.get().toEnvVars();
+    }
+
+    /**
+     * Entries of the current snapshot. The set doesn't change afterwards and can't be modified.
+     */
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return current.get().entrySet();
+    }
+}
@@ -1,20 +1,31 @@
 package org.jenkins.util.variable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
 
 /**
  * Traverses a directed graph and if it contains any cycle, throw an exception.
+ *
+ * <p>
+ * The traversal is iterative and keeps its path in arrays, so it doesn't depend on the
+ * thread stack size, whatever the length of the reference chains.
  */
 public abstract class CyclicGraphDetector<N> {
-    private final Set<N>   visited          = new HashSet<N>();
-    private final Set<N>   visiting         = new HashSet<N>();
-    private final Stack<N> path             = new Stack<N>();
+    private final Set<N>          visited          = new HashSet<N>();
+    /** nodes on the current path, to their position in it */
+    private final Map<N, Integer> visiting         = new HashMap<N, Integer>();
 
-    private final List<N>  topologicalOrder = new ArrayList<N>();
+    private Object[]              pathNodes        = new Object[16];
+    private Iterator<?>[]         pathEdges        = new Iterator<?>[16];
+    private int                   depth;
+
+    private final List<N>         topologicalOrder = new ArrayList<N>();
 
     public void run(Iterable<? extends N> allNodes) throws CycleDetectedException {
         for (N n : allNodes) {
@@ -38,28 +49,57 @@ public abstract class CyclicGraphDetector<N> {
      */
     protected abstract Iterable<? extends N> getEdges(N n);
 
-    private void visit(N p) throws CycleDetectedException {
-        if (!visited.add(p))
+    @SuppressWarnings("unchecked")
+    private void visit(N start) throws CycleDetectedException {
+        if (!visited.add(start))
             return;
 
-        visiting.add(p);
-        path.push(p);
-        for (N q : getEdges(p)) {
+        push(start);
+        while (depth > 0) {
+            Iterator<? extends N> edges = (Iterator<? extends N>) pathEdges[depth - 1];
+            if (!edges.hasNext()) {
+                N p = (N) pathNodes[depth - 1];
+                pop();
+                topologicalOrder.add(p);
+                continue;
+            }
+
+            N q = edges.next();
             if (q == null)
                 continue; // ignore unresolved references
-            if (visiting.contains(q))
-                detectedCycle(q);
-            visit(q);
+            Integer i = visiting.get(q);
+            if (i != null)
+                detectedCycle(q, i);
+            else if (visited.add(q))
+                push(q);
         }
-        visiting.remove(p);
-        path.pop();
-        topologicalOrder.add(p);
     }
 
-    private void detectedCycle(N q) throws CycleDetectedException {
-        int i = path.indexOf(q);
-        path.push(q);
-        reactOnCycle(q, path.subList(i, path.size()));
+    private void push(N n) {
+        if (depth == pathNodes.length) {
+            pathNodes = Arrays.copyOf(pathNodes, depth * 2);
+            pathEdges = Arrays.copyOf(pathEdges, depth * 2);
+        }
+        visiting.put(n, depth);
+        pathNodes[depth] = n;
+        pathEdges[depth] = getEdges(n).iterator();
+        depth++;
+    }
+
+    private void pop() {
+        depth--;
+        visiting.remove(pathNodes[depth]);
+        pathNodes[depth] = null;
+        pathEdges[depth] = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void detectedCycle(N q, int i) throws CycleDetectedException {
+        List<N> cycle = new ArrayList<N>(depth - i + 1);
+        for (int j = i; j < depth; j++)
+            cycle.add((N) pathNodes[j]);
+        cycle.add(q);
+        reactOnCycle(q, cycle);
     }
 
     /**
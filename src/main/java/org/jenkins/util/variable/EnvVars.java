@@ -24,18 +24,19 @@
 package org.jenkins.util.variable;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
-import java.util.logging.Logger;
-
-import org.jenkins.util.variable.CyclicGraphDetector.CycleDetectedException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Environment variables.
@@ -55,6 +56,12 @@ import org.jenkins.util.variable.CyclicGraphDetector.CycleDetectedException;
  * case insensitive but case preserving.
  *
  * <p>
+ * Lookups are hash based (see {@link CaseInsensitiveHashMap}), while iteration and the
+ * {@link java.util.NavigableMap} methods still follow {@link CaseInsensitiveComparator} order.
+ * Up to 1.x this class extended <tt>TreeMap</tt>. It no longer does, and it can't read objects
+ * serialized by those versions.
+ *
+ * <p>
  * In Jenkins, often we need to build up "environment variable overrides"
  * on master, then to execute the process on agents. This causes a problem
  * when working with variables like <tt>PATH</tt>. So to make this work,
@@ -62,11 +69,14 @@ import org.jenkins.util.variable.CyclicGraphDetector.CycleDetectedException;
  * that starts with <tt>PATH+</tt> are merged and prepended to the inherited
  * <tt>PATH</tt> variable, on the process where a new process is executed. 
  */
-public class EnvVars extends TreeMap<String, String> {
-    private static final long serialVersionUID = 1L;
-    private static Logger     LOGGER           = Logger.getLogger(EnvVars.class.getName());
+public class EnvVars extends CaseInsensitiveHashMap<String> {
+    private static final long serialVersionUID    = 1L;
+    /** Number of strings that {@link #expandAll(String[], ExecutorService)} expands per task. */
+    public static final int   PARALLEL_BATCH_SIZE = 4096;
     /** enable replace empty variable */
-    private boolean           enableEmpty      = false;
+    private boolean           enableEmpty         = false;
+    /** separator used to join <tt>PATH+XYZ</tt> values */
+    private char              pathSeparator       = File.pathSeparatorChar;
 
     public EnvVars(boolean enableEmpty) {
         this();
@@ -74,7 +84,6 @@ public class EnvVars extends TreeMap<String, String> {
     }
 
     public EnvVars() {
-        super(CaseInsensitiveComparator.INSTANCE);
     }
 
     public EnvVars(Map<String, String> m) {
@@ -98,6 +107,22 @@ public class EnvVars extends TreeMap<String, String> {
             put(keyValuePairs[i], keyValuePairs[i + 1]);
     }
 
+    /**
+     * Creates an empty {@link LayeredEnvVars} on top of this, which is a cheap alternative
+     * to {@link #EnvVars(EnvVars)} when only a few entries are going to be changed.
+     */
+    public LayeredEnvVars newLayer() {
+        return new LayeredEnvVars(this);
+    }
+
+    /**
+     * Returns an immutable snapshot of the current entries, which caches the forms needed
+     * to launch processes.
+     */
+    public FrozenEnvVars freeze() {
+        return FrozenEnvVars.of(this);
+    }
+
     /**
      * Overrides the current entry by the given entry.
      *
@@ -118,10 +143,8 @@ public class EnvVars extends TreeMap<String, String> {
                 v = value;
             else {
                 // we might be handling environment variables for a agent that can have different path separator
-                // than the master, so the following is an attempt to get it right.
-                // it's still more error prone that I'd like.
-                char ch = File.pathSeparatorChar;
-                v = value + ch + v;
+                // than the master, so callers that know the agent set it with setPathSeparator.
+                v = value + pathSeparator + v;
             }
             put(realKey, v);
             return;
@@ -136,171 +159,38 @@ public class EnvVars extends TreeMap<String, String> {
      * @return this
      */
     public EnvVars overrideAll(Map<String, String> all) {
+        // PATH+XYZ values are collected per variable and joined once at the end,
+        // rather than copying the whole value for each of them.
+        Map<CaseFoldedKey, PathList> paths = null;
         for (Map.Entry<String, String> e : all.entrySet()) {
-            override(e.getKey(), e.getValue());
-        }
-        return this;
-    }
-
-    /**
-     * Calculates the order to override variables.
-     * 
-     * Sort variables with topological sort with their reference graph.
-     * 
-     * This is package accessible for testing purpose.
-     */
-    static class OverrideOrderCalculator {
-        /**
-         * Extract variables referred directly from a variable.
-         */
-        private static class TraceResolver implements VariableResolver<String> {
-            private final Comparator<? super String> comparator;
-            public Set<String>                       referredVariables;
-
-            public TraceResolver(Comparator<? super String> comparator) {
-                this.comparator = comparator;
-                clear();
-            }
-
-            public void clear() {
-                referredVariables = new TreeSet<String>(comparator);
-            }
-
-            public String resolve(String name) {
-                referredVariables.add(name);
-                return "";
-            }
-        }
-
-        private static class VariableReferenceSorter extends CyclicGraphDetector<String> {
-            // map from a variable to a set of variables that variable refers.
-            private final Map<String, Set<String>> refereeSetMap;
-
-            public VariableReferenceSorter(Map<String, Set<String>> refereeSetMap) {
-                this.refereeSetMap = refereeSetMap;
-            }
-
-            @Override
-            protected Iterable<? extends String> getEdges(String n) {
-                // return variables referred from the variable.
-                if (!refereeSetMap.containsKey(n)) {
-                    // there is a case a non-existing variable is referred...
-                    return Collections.emptySet();
+            String key = e.getKey();
+            String value = e.getValue();
+            int idx = key.indexOf('+');
+            if (idx > 0 && value != null && (value.length() > 0 || enableEmpty)) {
+                if (paths == null)
+                    paths = new LinkedHashMap<CaseFoldedKey, PathList>();
+                CaseFoldedKey realKey = CaseFoldedKey.of(key.substring(0, idx));
+                PathList path = paths.get(realKey);
+                if (path == null) {
+                    String v = get(realKey.getName());
+                    path = v == null ? new PathList(pathSeparator, false) : PathList.parse(v, pathSeparator, false);
+                    paths.put(realKey, path);
                 }
-                return refereeSetMap.get(n);
+                path.prepend(value);
+                continue;
             }
-        };
-
-        private final Comparator<? super String> comparator;
-
-        private final EnvVars                    target;
-        private final Map<String, String>        overrides;
-
-        private Map<String, Set<String>>         refereeSetMap;
-        private List<String>                     orderedVariableNames;
-
-        public OverrideOrderCalculator(EnvVars target, Map<String, String> overrides) {
-            comparator = target.comparator();
-            this.target = target;
-            this.overrides = overrides;
-            scan();
-        }
-
-        public List<String> getOrderedVariableNames() {
-            return orderedVariableNames;
-        }
-
-        // Cut the reference to the variable in a cycle.
-        private void cutCycleAt(String referee, List<String> cycle) {
-            // cycle contains variables in referrer-to-referee order.
-            // This should not be negative, for the first and last one is same.
-            int refererIndex = cycle.lastIndexOf(referee) - 1;
-
-            assert (refererIndex >= 0);
-            String referrer = cycle.get(refererIndex);
-            boolean removed = refereeSetMap.get(referrer).remove(referee);
-            assert (removed);
-            LOGGER
-                .warning(String.format("Cyclic reference detected: %s", Util.join(cycle, " -> ")));
-            LOGGER.warning(String.format("Cut the reference %s -> %s", referrer, referee));
-        }
-
-        // Cut the variable reference in a cycle.
-        private void cutCycle(List<String> cycle) {
-            // if an existing variable is contained in that cycle,
-            // cut the cycle with that variable:
-            // existing:
-            //   PATH=/usr/bin
-            // overriding:
-            //   PATH1=/usr/local/bin:${PATH}
-            //   PATH=/opt/something/bin:${PATH1}
-            // then consider reference PATH1 -> PATH can be ignored.
-            for (String referee : cycle) {
-                if (target.containsKey(referee)) {
-                    cutCycleAt(referee, cycle);
-                    return;
-                }
+            if (paths != null) {
+                PathList path = paths.remove(CaseFoldedKey.of(key));
+                if (path != null)
+                    put(key, path.toString());
             }
-
-            // if not, cut the reference to the first one.
-            cutCycleAt(cycle.get(0), cycle);
+            override(key, value);
         }
-
-        /**
-         * Scan all variables and list all referring variables.
-         */
-        public void scan() {
-            refereeSetMap = new TreeMap<String, Set<String>>(comparator);
-            List<String> extendingVariableNames = new ArrayList<String>();
-
-            TraceResolver resolver = new TraceResolver(comparator);
-
-            for (Map.Entry<String, String> entry : overrides.entrySet()) {
-                if (entry.getKey().indexOf('+') > 0) {
-                    // XYZ+AAA variables should be always processed in last.
-                    extendingVariableNames.add(entry.getKey());
-                    continue;
-                }
-                resolver.clear();
-                Util.replaceMacro(entry.getValue(), resolver);
-
-                // Variables directly referred from the current scanning variable.
-                Set<String> refereeSet = resolver.referredVariables;
-                // Ignore self reference.
-                refereeSet.remove(entry.getKey());
-                refereeSetMap.put(entry.getKey(), refereeSet);
-            }
-
-            VariableReferenceSorter sorter;
-            while (true) {
-                sorter = new VariableReferenceSorter(refereeSetMap);
-                try {
-                    sorter.run(refereeSetMap.keySet());
-                } catch (CycleDetectedException e) {
-                    // cyclic reference found.
-                    // cut the cycle and retry.
-                    @SuppressWarnings("unchecked")
-                    List<String> cycle = (List<String>) e.cycle;
-                    cutCycle(cycle);
-                    continue;
-                }
-                break;
-            }
-
-            // When A refers B, the last appearance of B always comes after
-            // the last appearance of A.
-            List<String> reversedDuplicatedOrder = new ArrayList<String>(sorter.getSorted());
-            Collections.reverse(reversedDuplicatedOrder);
-
-            orderedVariableNames = new ArrayList<String>(overrides.size());
-            for (String key : reversedDuplicatedOrder) {
-                if (overrides.containsKey(key) && !orderedVariableNames.contains(key)) {
-                    orderedVariableNames.add(key);
-                }
-            }
-            Collections.reverse(orderedVariableNames);
-            orderedVariableNames.addAll(extendingVariableNames);
+        if (paths != null) {
+            for (Map.Entry<CaseFoldedKey, PathList> e : paths.entrySet())
+                put(e.getKey().getName(), e.getValue().toString());
         }
+        return this;
     }
 
     /**
@@ -315,6 +205,15 @@ public class EnvVars extends TreeMap<String, String> {
         return this;
     }
 
+    /**
+     * Does the same as {@link #overrideExpandingAll(Map)}, and returns an object through
+     * which variables and overrides can then be changed, expanding again only the overrides
+     * that depend on the changes.
+     */
+    public ReactiveOverrides overrideExpandingAllReactive(Map<String, String> all) {
+        return new ReactiveOverrides(this, all);
+    }
+
     /**
      * Resolves environment variables against each other.
      */
@@ -366,7 +265,114 @@ public class EnvVars extends TreeMap<String, String> {
      * Expands the variables in the given string by using environment variables represented in 'this'.
      */
     public String expand(String s) {
-        return Util.replaceMacro(s, this);
+        if (s == null || s.indexOf('$') < 0)
+            return s;
+        // values are usually expanded over and over, so reuse the parsed form.
+        return CompiledTemplate.of(s).render(this);
+    }
+
+    /**
+     * Expands all the given strings, like {@link #expand(String)} does for each of them.
+     * Null elements stay null.
+     *
+     * <p>
+     * The whole batch shares one resolver, one buffer and one set of parsed templates,
+     * so strings that repeat within the batch are only parsed once. The batch doesn't use the
+     * cache of {@link CompiledTemplate#of(String)}, so that it neither evicts the templates
+     * other callers use nor shares anything with the parts expanded in parallel.
+     */
+    public String[] expandAll(String[] strings) {
+        String[] r = new String[strings.length];
+        new BatchExpander(this).expand(strings, r, 0, strings.length);
+        return r;
+    }
+
+    /**
+     * Expands all the given strings, in iteration order. See {@link #expandAll(String[])}.
+     */
+    public List<String> expandAll(Collection<String> strings) {
+        return Arrays.asList(expandAll(strings.toArray(new String[strings.size()])));
+    }
+
+    /**
+     * Expands all the given strings, splitting batches larger than {@value #PARALLEL_BATCH_SIZE}
+     * into parts that are expanded by the given executor, such as a
+     * <tt>java.util.concurrent.ForkJoinPool</tt>. This environment must not be modified until
+     * this method returns.
+     */
+    public String[] expandAll(String[] strings, ExecutorService executor) {
+        if (strings.length <= PARALLEL_BATCH_SIZE)
+            return expandAll(strings);
+
+        final String[] src = strings;
+        final String[] r = new String[strings.length];
+        List<Future<?>> parts = new ArrayList<Future<?>>();
+        for (int i = 0; i < src.length; i += PARALLEL_BATCH_SIZE) {
+            final int from = i;
+            final int to = Math.min(src.length, i + PARALLEL_BATCH_SIZE);
+            parts.add(executor.submit(new Runnable() {
+                public void run() {
+                    new BatchExpander(EnvVars.this).expand(src, r, from, to);
+                }
+            }));
+        }
+        try {
+            for (Future<?> part : parts)
+                part.get();
+        } catch (InterruptedException e) {
+            for (Future<?> part : parts)
+                part.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while expanding variables", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+        return r;
+    }
+
+    /**
+     * State shared by the expansions of one batch, or of one part of a parallel batch.
+     * Not thread safe.
+     */
+    private static final class BatchExpander {
+        private final VariableResolver<String>      resolver;
+        private final StringBuilder                 buf       = new StringBuilder();
+        private final Map<String, CompiledTemplate> templates = new HashMap<String, CompiledTemplate>();
+
+        BatchExpander(Map<String, String> env) {
+            resolver = new VariableResolver.ByMap<String>(env);
+        }
+
+        void expand(String[] src, String[] dst, int from, int to) {
+            for (int i = from; i < to; i++) {
+                String s = src[i];
+                if (s == null || s.indexOf('$') < 0) {
+                    dst[i] = s;
+                    continue;
+                }
+                CompiledTemplate t = templates.get(s);
+                if (t == null) {
+                    t = CompiledTemplate.compile(s);
+                    templates.put(s, t);
+                }
+                buf.setLength(0);
+                t.renderTo(buf, resolver);
+                dst[i] = buf.toString();
+            }
+        }
+    }
+
+    /**
+     * Expands the variables in the text read from <tt>in</tt> and writes the result to <tt>out</tt>,
+     * without reading the whole text into memory. Neither stream is closed.
+     */
+    public void expandTo(Reader in, Writer out) throws IOException {
+        Util.replaceMacro(in, out, new VariableResolver.ByMap<String>(this));
     }
 
     public boolean isEnableEmpty() {
@@ -376,4 +382,24 @@ public class EnvVars extends TreeMap<String, String> {
     public void setEnableEmpty(boolean enableEmpty) {
         this.enableEmpty = enableEmpty;
     }
+
+    public char getPathSeparator() {
+        return pathSeparator;
+    }
+
+    /**
+     * Sets the separator used to join <tt>PATH+XYZ</tt> values, which should be the one of the
+     * machine the variables are for. Defaults to {@link File#pathSeparatorChar}, and isn't serialized.
+     */
+    public void setPathSeparator(char pathSeparator) {
+        this.pathSeparator = pathSeparator;
+    }
+
+    /**
+     * Serializes with {@link EnvVarsCodec}, which is much more compact than the entries
+     * written one by one.
+     */
+    private Object writeReplace() {
+        return new EnvVarsCodec.SerializedForm(this);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,402 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins project contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.util.variable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary form of environment variables, used to serialize {@link EnvVars}.
+ *
+ * <p>
+ * The encoding starts with a version byte and a flag byte, followed by the number of
+ * entries and the entries in {@link CaseInsensitiveComparator} order. Numbers are unsigned
+ * varints (7 bits per byte, low bits first). Strings are written as their length in chars
+ * followed by each char in UTF-8 (surrogates are encoded separately, as in CESU-8). Names
+ * found in a fixed dictionary of common variables are written as their index in it, and with
+ * {@link #PREFIX_COMPRESSION} each value only stores what differs from the previous value
+ * after their common prefix, which suits the many similar paths found in build environments.
+ *
+ * <p>
+ * {@link EnvVars#isEnableEmpty()} is kept in the flags. The path separator is not part of the
+ * format, as it isn't serialized (see {@link EnvVars#setPathSeparator(char)}).
+ */
+public final class EnvVarsCodec {
+    /** Version written by this class. */
+    public static final int                   VERSION            = 1;
+
+    /** Flag to store values as the length of the prefix they share with the previous value plus the rest. */
+    public static final int                   PREFIX_COMPRESSION = 1;
+    /** Flag set when {@link EnvVars#isEnableEmpty()} is true. */
+    private static final int                  ENABLE_EMPTY       = 2;
+
+    /**
+     * Names encoded as an index. Part of the format of {@link #VERSION}: never reorder or
+     * remove entries, only append.
+     */
+    private static final String[]             DICTIONARY         = { "PATH", "Path", "HOME", "USER",
+            "USERNAME", "SHELL", "LANG", "PWD", "TMPDIR", "TEMP", "TMP", "JAVA_HOME", "MAVEN_HOME",
+            "M2_HOME", "ANT_HOME", "CLASSPATH", "LD_LIBRARY_PATH", "WORKSPACE", "JENKINS_HOME",
+            "HUDSON_HOME", "BUILD_NUMBER", "BUILD_ID", "BUILD_URL", "BUILD_TAG", "BUILD_DISPLAY_NAME",
+            "JOB_NAME", "JOB_BASE_NAME", "JOB_URL", "NODE_NAME", "NODE_LABELS", "EXECUTOR_NUMBER",
+            "JENKINS_URL", "HUDSON_URL", "HUDSON_SERVER_COOKIE", "JENKINS_SERVER_COOKIE", "GIT_COMMIT",
+            "GIT_BRANCH", "GIT_URL", "GIT_PREVIOUS_COMMIT", "SVN_REVISION", "SVN_URL", "LOGNAME",
+            "HOSTNAME", "TERM", "DISPLAY", "MAIL", "OLDPWD", "SHLVL", "_", "LC_ALL", "CI", "ComSpec",
+            "SystemRoot", "windir", "PATHEXT", "PROCESSOR_ARCHITECTURE", "NUMBER_OF_PROCESSORS", "OS",
+            "USERPROFILE", "APPDATA", "LOCALAPPDATA", "ProgramFiles", "ProgramFiles(x86)",
+            "COMPUTERNAME", "USERDOMAIN" };
+
+    private static final Map<String, Integer> INDEX              = new HashMap<String, Integer>();
+
+    static {
+        for (int i = 0; i < DICTIONARY.length; i++)
+            INDEX.put(DICTIONARY[i], i);
+    }
+
+    private EnvVarsCodec() {
+    }
+
+    /**
+     * Encodes the given variables.
+     *
+     * @param flags
+     *      0 or {@link #PREFIX_COMPRESSION}.
+     */
+    public static byte[] encode(Map<String, String> env, int flags) {
+        ByteSink out = new ByteSink(null);
+        try {
+            write(env, flags, out);
+        } catch (IOException e) {
+            throw new AssertionError(e); // no stream involved
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes the given variables into the buffer.
+     *
+     * @throws java.nio.BufferOverflowException
+     *      if the buffer is too small; its position is then undefined.
+     */
+    public static void encode(Map<String, String> env, int flags, ByteBuffer buf) {
+        buf.put(encode(env, flags));
+    }
+
+    /**
+     * Encodes the given variables into the stream, which is not closed.
+     */
+    public static void write(Map<String, String> env, int flags, OutputStream out) throws IOException {
+        ByteSink sink = new ByteSink(out);
+        write(env, flags, sink);
+        sink.flush();
+    }
+
+    /**
+     * Decodes variables from the buffer, starting at its position and leaving it after them.
+     *
+     * @throws IllegalArgumentException
+     *      if the data is malformed or from an unknown version.
+     */
+    public static EnvVars decode(ByteBuffer buf) {
+        try {
+            return read(new BufferSource(buf));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decodes variables from the bytes.
+     */
+    public static EnvVars decode(byte[] data) {
+        return decode(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Reads variables from the stream, which is not closed. Only the encoded bytes are consumed.
+     *
+     * @throws IOException
+     *      if the stream fails, or the data is malformed or from an unknown version.
+     */
+    public static EnvVars read(InputStream in) throws IOException {
+        return read(new StreamSource(in));
+    }
+
+    private static void write(Map<String, String> env, int flags, ByteSink out) throws IOException {
+        flags &= PREFIX_COMPRESSION;
+        if (env instanceof EnvVars && ((EnvVars) env).isEnableEmpty())
+            flags |= ENABLE_EMPTY;
+
+        out.write(VERSION);
+        out.write(flags);
+        out.writeVarint(env.size());
+        String previous = "";
+        for (Map.Entry<String, String> e : env.entrySet()) {
+            String key = e.getKey();
+            Integer index = INDEX.get(key);
+            if (index != null) {
+                out.writeVarint(index + 1);
+            } else {
+                out.writeVarint(0);
+                out.writeString(key, 0);
+            }
+
+            String value = e.getValue();
+            if ((flags & PREFIX_COMPRESSION) != 0) {
+                int shared = commonPrefix(previous, value);
+                out.writeVarint(shared);
+                out.writeString(value, shared);
+                previous = value;
+            } else {
+                out.writeString(value, 0);
+            }
+        }
+    }
+
+    private static EnvVars read(Source in) throws IOException {
+        int version = in.read();
+        if (version != VERSION)
+            throw new IOException("Unsupported EnvVars encoding version: " + version);
+        int flags = in.read();
+        EnvVars env = new EnvVars((flags & ENABLE_EMPTY) != 0);
+        int size = in.readVarint();
+        if (size < 0)
+            throw new IOException("Malformed entry count: " + size);
+        String previous = "";
+        for (int i = 0; i < size; i++) {
+            int tag = in.readVarint();
+            String key;
+            if (tag == 0)
+                key = in.readString(null, 0);
+            else if (tag <= DICTIONARY.length)
+                key = DICTIONARY[tag - 1];
+            else
+                throw new IOException("Unknown dictionary index: " + tag);
+
+            String value;
+            if ((flags & PREFIX_COMPRESSION) != 0) {
+                int shared = in.readVarint();
+                if (shared < 0 || shared > previous.length())
+                    throw new IOException("Shared prefix longer than the previous value: " + shared);
+                value = in.readString(previous, shared);
+                previous = value;
+            } else {
+                value = in.readString(null, 0);
+            }
+            env.put(key, value);
+        }
+        return env;
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i))
+            i++;
+        return i;
+    }
+
+    /**
+     * Buffers bytes for a stream, or collects them all if there is no stream.
+     */
+    private static final class ByteSink {
+        private final OutputStream out;
+        private byte[]             buf = new byte[256];
+        private int                len;
+
+        ByteSink(OutputStream out) {
+            this.out = out;
+        }
+
+        void write(int b) throws IOException {
+            if (len == buf.length) {
+                if (out != null) {
+                    flush();
+                } else {
+                    byte[] grown = new byte[buf.length * 2];
+                    System.arraycopy(buf, 0, grown, 0, len);
+                    buf = grown;
+                }
+            }
+            buf[len++] = (byte) b;
+        }
+
+        void writeVarint(int v) throws IOException {
+            while ((v & ~0x7F) != 0) {
+                write((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            write(v);
+        }
+
+        /**
+         * Writes the chars of <tt>s</tt> from <tt>start</tt>, preceded by their count.
+         */
+        void writeString(String s, int start) throws IOException {
+            int end = s.length();
+            writeVarint(end - start);
+            for (int i = start; i < end; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    write(c);
+                } else if (c < 0x800) {
+                    write(0xC0 | (c >> 6));
+                    write(0x80 | (c & 0x3F));
+                } else {
+                    write(0xE0 | (c >> 12));
+                    write(0x80 | ((c >> 6) & 0x3F));
+                    write(0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        void flush() throws IOException {
+            out.write(buf, 0, len);
+            len = 0;
+        }
+
+        byte[] toByteArray() {
+            byte[] r = new byte[len];
+            System.arraycopy(buf, 0, r, 0, len);
+            return r;
+        }
+    }
+
+    private static abstract class Source {
+        /**
+         * Reads one byte, as an unsigned value.
+         */
+        abstract int read() throws IOException;
+
+        int readVarint() throws IOException {
+            int v = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = read();
+                v |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return v;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        /**
+         * Upper bound of the number of bytes left, used to reject lengths that can't be right
+         * before allocating anything for them.
+         */
+        int remaining() {
+            return Integer.MAX_VALUE;
+        }
+
+        /**
+         * Reads a string written by {@link ByteSink#writeString}, after the first
+         * <tt>shared</tt> chars of <tt>prefix</tt>.
+         */
+        String readString(String prefix, int shared) throws IOException {
+            int n = readVarint();
+            // each char takes at least one byte
+            if (n < 0 || n > Integer.MAX_VALUE - shared || n > remaining())
+                throw new IOException("Malformed string length: " + n);
+            // grown as chars are read, so that a corrupted length read from a stream
+            // fails at the end of the stream instead of allocating that much upfront
+            StringBuilder buf = new StringBuilder(shared + Math.min(n, 8192));
+            if (shared > 0)
+                buf.append(prefix, 0, shared);
+            for (int i = 0; i < n; i++) {
+                int b = read();
+                if (b < 0x80) {
+                    buf.append((char) b);
+                } else if ((b & 0xE0) == 0xC0) {
+                    buf.append((char) (((b & 0x1F) << 6) | (read() & 0x3F)));
+                } else if ((b & 0xF0) == 0xE0) {
+                    int b2 = read();
+                    buf.append((char) (((b & 0x0F) << 12) | ((b2 & 0x3F) << 6) | (read() & 0x3F)));
+                } else {
+                    throw new IOException("Malformed character: " + b);
+                }
+            }
+            return buf.toString();
+        }
+    }
+
+    private static final class BufferSource extends Source {
+        private final ByteBuffer buf;
+
+        BufferSource(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        int read() throws IOException {
+            try {
+                return buf.get() & 0xFF;
+            } catch (BufferUnderflowException e) {
+                throw new EOFException("Truncated EnvVars encoding");
+            }
+        }
+
+        @Override
+        int remaining() {
+            return buf.remaining();
+        }
+    }
+
+    private static final class StreamSource extends Source {
+        private final InputStream in;
+
+        StreamSource(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        int read() throws IOException {
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException("Truncated EnvVars encoding");
+            return b;
+        }
+    }
+
+    /**
+     * Serialized form of {@link EnvVars}.
+     */
+    static final class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final byte[]      data;
+
+        SerializedForm(EnvVars env) {
+            data = encode(env, PREFIX_COMPRESSION);
+        }
+
+        private Object readResolve() {
+            return decode(data);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins project contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.util.variable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Loads <tt>KEY=VALUE</tt> entries separated by NUL or newline bytes, as found in
+ * <tt>/proc/&lt;pid&gt;/environ</tt> or printed by <tt>env -0</tt> and <tt>env</tt>.
+ *
+ * <p>
+ * The data is scanned once and each name and value is decoded straight from the bytes,
+ * instead of decoding whole lines and splitting them with {@link EnvVars#addLine(String)}.
+ * Like {@link EnvVars#addLine(String)}, entries without a name before the first <tt>=</tt>
+ * are ignored.
+ *
+ * <p>
+ * Not thread safe: a loader reuses its buffers from one call to the next.
+ */
+public final class EnvironLoader {
+    public static final byte     NUL           = 0;
+    public static final byte     NEWLINE       = '\n';
+
+    /** files at least this large are memory-mapped rather than read */
+    private static final int     MAP_THRESHOLD = 64 * 1024;
+
+    private final Charset        charset;
+    private final boolean        intern;
+
+    /** scratch space for decoding ASCII names and values */
+    private byte[]               bytes         = new byte[256];
+    private char[]               chars         = new char[256];
+
+    /**
+     * @param charset
+     *      encoding of the data; names and values that are plain ASCII don't go through it.
+     * @param intern
+     *      whether to {@link String#intern()} the names, which saves memory when many
+     *      environments with the same names are kept.
+     */
+    public EnvironLoader(Charset charset, boolean intern) {
+        this.charset = charset;
+        this.intern = intern;
+    }
+
+    /**
+     * Loads UTF-8 data, without interning names.
+     */
+    public EnvironLoader() {
+        this(Charset.forName("UTF-8"), false);
+    }
+
+    /**
+     * Loads the environment of a running process from <tt>/proc/&lt;pid&gt;/environ</tt>.
+     * Only works on Linux, and for processes the current user can inspect.
+     */
+    public EnvVars loadProcess(int pid) throws IOException {
+        EnvVars env = new EnvVars();
+        load(new File("/proc/" + pid + "/environ"), NUL, env);
+        return env;
+    }
+
+    /**
+     * Loads a file whose entries are separated by the given byte into <tt>target</tt>.
+     * Large files are memory-mapped.
+     */
+    public void load(File file, byte separator, Map<String, String> target) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            load(in.getChannel(), separator, target);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Loads the rest of the channel into <tt>target</tt>. Channels of large files are
+     * memory-mapped, others (including files of <tt>/proc</tt>, whose size is unknown) are read.
+     */
+    public void load(FileChannel channel, byte separator, Map<String, String> target) throws IOException {
+        long size = channel.size() - channel.position();
+        if (size >= MAP_THRESHOLD) {
+            load(channel.map(FileChannel.MapMode.READ_ONLY, channel.position(), size), separator, target);
+            channel.position(channel.position() + size);
+            return;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size > 0 ? (int) size + 1 : 4096);
+        while (channel.read(buf) >= 0) {
+            if (!buf.hasRemaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(buf.capacity() * 2);
+                buf.flip();
+                grown.put(buf);
+                buf = grown;
+            }
+        }
+        buf.flip();
+        load(buf, separator, target);
+    }
+
+    /**
+     * Loads the remaining bytes of the buffer into <tt>target</tt>, and leaves the buffer at its limit.
+     */
+    public void load(ByteBuffer buf, byte separator, Map<String, String> target) {
+        int limit = buf.limit();
+        int start = buf.position();
+        int eq = -1;
+        boolean ascii = true;
+        if (buf.hasArray()) {
+            byte[] a = buf.array();
+            int offset = buf.arrayOffset();
+            for (int i = start; i < limit; i++) {
+                byte b = a[offset + i];
+                if (b == separator) {
+                    put(buf, start, eq, i, ascii, target);
+                    start = i + 1;
+                    eq = -1;
+                    ascii = true;
+                } else if (b == '=' && eq < 0) {
+                    eq = i;
+                } else if (b < 0) {
+                    ascii = false;
+                }
+            }
+        } else {
+            for (int i = start; i < limit; i++) {
+                byte b = buf.get(i);
+                if (b == separator) {
+                    put(buf, start, eq, i, ascii, target);
+                    start = i + 1;
+                    eq = -1;
+                    ascii = true;
+                } else if (b == '=' && eq < 0) {
+                    eq = i;
+                } else if (b < 0) {
+                    ascii = false;
+                }
+            }
+        }
+        put(buf, start, eq, limit, ascii, target);
+        buf.position(limit);
+    }
+
+    /**
+     * Loads the remaining bytes of the buffer, separated by NUL if there is any, by newlines otherwise.
+     */
+    public EnvVars load(ByteBuffer buf) {
+        EnvVars env = new EnvVars();
+        load(buf, separatorOf(buf), env);
+        return env;
+    }
+
+    /**
+     * Returns {@link #NUL} if the remaining bytes contain one, {@link #NEWLINE} otherwise.
+     */
+    public static byte separatorOf(ByteBuffer buf) {
+        for (int i = buf.position(); i < buf.limit(); i++) {
+            if (buf.get(i) == NUL)
+                return NUL;
+        }
+        return NEWLINE;
+    }
+
+    private void put(ByteBuffer buf, int start, int eq, int end, boolean ascii, Map<String, String> target) {
+        if (eq <= start)
+            return;
+        String key = decode(buf, start, eq, ascii);
+        if (intern)
+            key = key.intern();
+        target.put(key, decode(buf, eq + 1, end, ascii));
+    }
+
+    /**
+     * Decodes bytes from <tt>start</tt> to <tt>end</tt>, which are only known to be ASCII if
+     * <tt>ascii</tt> is true.
+     */
+    private String decode(ByteBuffer buf, int start, int end, boolean ascii) {
+        int len = end - start;
+        if (!ascii) {
+            ByteBuffer slice = buf.duplicate();
+            slice.limit(end).position(start);
+            return charset.decode(slice).toString();
+        }
+        if (chars.length < len)
+            chars = new char[Math.max(len, chars.length * 2)];
+        if (buf.hasArray()) {
+            byte[] a = buf.array();
+            int offset = buf.arrayOffset() + start;
+            for (int i = 0; i < len; i++)
+                chars[i] = (char) a[offset + i];
+        } else {
+            if (bytes.length < len)
+                bytes = new byte[Math.max(len, bytes.length * 2)];
+            ByteBuffer slice = buf.duplicate();
+            slice.limit(end).position(start);
+            slice.get(bytes, 0, len);
+            for (int i = 0; i < len; i++)
+                chars[i] = (char) bytes[i];
+        }
+        return new String(chars, 0, len);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins project contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.util.variable;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of environment variables, made by {@link EnvVars#freeze()}.
+ *
+ * <p>
+ * Entries are kept in arrays sorted in {@link CaseInsensitiveComparator} order, and the forms
+ * needed to launch a process &mdash; the <tt>KEY=VALUE</tt> array and the sorted names &mdash; are built
+ * the first time they are asked for and then reused, as is the hash code. So launching many
+ * processes with one snapshot only pays for them once, and snapshots can be deduplicated with
+ * a hash map.
+ *
+ * <p>
+ * Like {@link EnvVars}, names are case insensitive but case preserving.
+ */
+public final class FrozenEnvVars extends AbstractMap<String, String> implements VariableResolver<String>,
+                                                                              Serializable {
+    private static final long           serialVersionUID = 1L;
+
+    private final String[]              keys;
+    /** case-folded {@link #keys}, used for lookups */
+    private final String[]              folded;
+    private final String[]              values;
+
+    /** <tt>KEY=VALUE</tt> strings, computed on demand */
+    private transient volatile String[] envp;
+    /** 0 until computed, like {@link String#hashCode()} */
+    private transient int               hash;
+
+    private FrozenEnvVars(String[] keys, String[] folded, String[] values) {
+        this.keys = keys;
+        this.folded = folded;
+        this.values = values;
+    }
+
+    /**
+     * Returns a snapshot of the given variables.
+     */
+    public static FrozenEnvVars of(Map<String, String> m) {
+        if (m instanceof FrozenEnvVars)
+            return (FrozenEnvVars) m;
+        if (!(m instanceof EnvVars))
+            m = new EnvVars(m);
+
+        int n = m.size();
+        String[] keys = new String[n];
+        String[] folded = new String[n];
+        String[] values = new String[n];
+        int i = 0;
+        for (Map.Entry<String, String> e : m.entrySet()) {
+            keys[i] = e.getKey();
+            folded[i] = CaseFoldedKey.foldedName(e.getKey());
+            values[i] = e.getValue();
+            i++;
+        }
+        return new FrozenEnvVars(keys, folded, values);
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : values[i];
+    }
+
+    public String resolve(String name) {
+        return get(name);
+    }
+
+    private int indexOf(Object key) {
+        String f = CaseInsensitiveHashMap.foldKey(key);
+        if (f == null)
+            return -1;
+        return Arrays.binarySearch(folded, f);
+    }
+
+    /**
+     * Expands the variables in the given string by using environment variables represented in 'this'.
+     */
+    public String expand(String s) {
+        if (s == null || s.indexOf('$') < 0)
+            return s;
+        return CompiledTemplate.of(s).render((VariableResolver<String>) this);
+    }
+
+    /**
+     * Returns the variables as <tt>KEY=VALUE</tt> strings in name order, as
+     * <tt>Runtime.exec</tt> takes them. The strings are built only once; each call
+     * returns a new copy of the array.
+     */
+    public String[] toEnvp() {
+        String[] r = envp;
+        if (r == null) {
+            r = new String[keys.length];
+            for (int i = 0; i < r.length; i++)
+                r[i] = keys[i] + '=' + values[i];
+            envp = r;
+        }
+        return r.clone();
+    }
+
+    /**
+     * Returns the names of the variables in {@link CaseInsensitiveComparator} order.
+     */
+    public String[] getKeys() {
+        return keys.clone();
+    }
+
+    /**
+     * Replaces the contents of the given map, such as <tt>ProcessBuilder.environment()</tt>,
+     * with these variables.
+     */
+    public void applyTo(Map<String, String> target) {
+        target.clear();
+        for (int i = 0; i < keys.length; i++)
+            target.put(keys[i], values[i]);
+    }
+
+    /**
+     * Returns a mutable copy.
+     */
+    public EnvVars toEnvVars() {
+        return new EnvVars(this);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            for (int i = 0; i < keys.length; i++)
+                h += keys[i].hashCode() ^ values[i].hashCode();
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this)
+            return true;
+        if (o instanceof FrozenEnvVars) {
+            FrozenEnvVars that = (FrozenEnvVars) o;
+            return hashCode() == that.hashCode() && Arrays.equals(keys, that.keys)
+                   && Arrays.equals(values, that.values);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+            @Override
+            public int size() {
+                return keys.length;
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new Iterator<Map.Entry<String, String>>() {
+                    private int next;
+
+                    public boolean hasNext() {
+                        return next < keys.length;
+                    }
+
+                    public Map.Entry<String, String> next() {
+                        if (next >= keys.length)
+                            throw new NoSuchElementException();
+                        return new Entry(next++);
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    private final class Entry implements Map.Entry<String, String> {
+        private final int index;
+
+        Entry(int index) {
+            this.index = index;
+        }
+
+        public String getKey() {
+            return keys[index];
+        }
+
+        public String getValue() {
+            return values[index];
+        }
+
+        public String setValue(String value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return getKey().equals(e.getKey()) && getValue().equals(e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^ getValue().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
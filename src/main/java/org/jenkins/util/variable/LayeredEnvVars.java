@@ -0,0 +1,384 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins project contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.util.variable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link EnvVars} that only holds its own changes on top of a parent environment.
+ *
+ * <p>
+ * Entries put into this layer shadow those of the parent, and removed entries are
+ * remembered as tombstones. Lookups that miss this layer are delegated to the parent, so
+ * creating a layer costs nothing regardless of the size of the parent, and the layer sees
+ * later changes to the parent. Apart from that, {@link #get}, {@link #expand} and
+ * {@link #override} (including <tt>PATH+XYZ</tt>) behave the same as on a copy made with
+ * {@link EnvVars#EnvVars(EnvVars)}.
+ *
+ * <p>
+ * Lookups walk down the chain, so they cost as much as its depth. The first iteration after
+ * an entry was added to or removed from any layer merges the chain, which costs as much as
+ * iterating over a full copy; the merged entries are then kept until the next such change.
+ * Use {@link #flatten()} to cut long chains of layers.
+ *
+ * <p>
+ * As for {@link CaseInsensitiveHashMap}, a chain that no thread modifies can be read from
+ * many threads at the same time.
+ */
+public class LayeredEnvVars extends EnvVars {
+    private static final long                  serialVersionUID = 1L;
+
+    private EnvVars                            parent;
+    /** case-folded names of the parent entries removed in this layer */
+    private final Set<String>                  tombstones       = new HashSet<String>();
+    /** incremented whenever an entry becomes visible or invisible in this layer */
+    private transient int                      version;
+    /** entries of this layer merged with those of the parents, or null */
+    private transient volatile Merged          merged;
+
+    /**
+     * Creates an empty layer over the given environment.
+     */
+    public LayeredEnvVars(EnvVars parent) {
+        this(parent, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates an empty layer over the given environment. If that would make a chain of more
+     * than <tt>maxDepth</tt> layers, the new layer is put over a flattened copy of
+     * <tt>parent</tt> instead, and so no longer sees later changes of <tt>parent</tt>.
+     */
+    public LayeredEnvVars(EnvVars parent, int maxDepth) {
+        if (parent == null)
+            throw new IllegalArgumentException("parent must not be null");
+        if (hasLayers(parent, maxDepth))
+            parent = flatten(parent);
+        this.parent = parent;
+        setEnableEmpty(parent.isEnableEmpty());
+        setPathSeparator(parent.getPathSeparator());
+    }
+
+    public EnvVars getParent() {
+        return parent;
+    }
+
+    /**
+     * Number of layers in this chain, counting this one.
+     */
+    public int getDepth() {
+        return depthOf(this);
+    }
+
+    /**
+     * True if <tt>env</tt> is a chain of at least the given number of layers. Walks no more
+     * than that, so that creating a layer over a deep chain doesn't cost its depth.
+     */
+    private static boolean hasLayers(EnvVars env, int layers) {
+        if (layers == Integer.MAX_VALUE)
+            return false; // can't be reached
+        for (int i = 0; i < layers; i++) {
+            if (!(env instanceof LayeredEnvVars))
+                return false;
+            env = ((LayeredEnvVars) env).parent;
+        }
+        return true;
+    }
+
+    private static int depthOf(EnvVars env) {
+        int depth = 0;
+        while (env instanceof LayeredEnvVars) {
+            depth++;
+            env = ((LayeredEnvVars) env).parent;
+        }
+        return depth;
+    }
+
+    /**
+     * Returns a copy of all entries visible in this layer that doesn't depend on the parents.
+     */
+    public EnvVars flatten() {
+        return flatten(this);
+    }
+
+    private static EnvVars flatten(EnvVars env) {
+        EnvVars r = new EnvVars(env);
+        r.setEnableEmpty(env.isEnableEmpty());
+        r.setPathSeparator(env.getPathSeparator());
+        return r;
+    }
+
+    /**
+     * Applies the changes made in this layer to its parent, which then has the same entries as
+     * this layer. Costs as much as the number of changed entries.
+     */
+    void commit() {
+        if (parent == null)
+            throw new IllegalStateException("cleared layer has no parent");
+        for (String f : tombstones)
+            parent.remove(f);
+        for (Map.Entry<String, String> e : super.sortedEntries())
+            parent.put(e.getKey(), e.getValue());
+    }
+
+    /**
+     * Returns the layer of this chain the given entry is looked up in, or null if a layer
+     * has removed it. That is either the topmost layer holding the entry, or the bottom of
+     * the chain.
+     */
+    private EnvVars lookup(String f) {
+        LayeredEnvVars l = this;
+        while (true) {
+            if (l.localContainsKey(f) || l.parent == null)
+                return l;
+            if (l.tombstones.contains(f))
+                return null;
+            if (!(l.parent instanceof LayeredEnvVars))
+                return l.parent;
+            l = (LayeredEnvVars) l.parent;
+        }
+    }
+
+    private boolean localContainsKey(String f) {
+        return super.containsKey(f);
+    }
+
+    private String localGet(String f) {
+        return super.get(f);
+    }
+
+    private String localOriginalKey(String f) {
+        return super.originalKey(f);
+    }
+
+    @Override
+    public String get(Object key) {
+        String f = foldKey(key);
+        if (f == null)
+            return null;
+        EnvVars env = lookup(f);
+        if (env instanceof LayeredEnvVars)
+            return ((LayeredEnvVars) env).localGet(f);
+        return env == null ? null : env.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        String f = foldKey(key);
+        if (f == null)
+            return false;
+        EnvVars env = lookup(f);
+        if (env instanceof LayeredEnvVars)
+            return ((LayeredEnvVars) env).localContainsKey(f);
+        return env != null && env.containsKey(key);
+    }
+
+    @Override
+    String originalKey(Object key) {
+        String f = foldKey(key);
+        if (f == null)
+            return null;
+        EnvVars env = lookup(f);
+        if (env instanceof LayeredEnvVars)
+            return ((LayeredEnvVars) env).localOriginalKey(f);
+        return env == null ? null : env.originalKey(key);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        if (value == null)
+            throw new IllegalArgumentException(
+                "Null value not allowed as an environment variable: " + key);
+        String f = foldKey(key);
+        String old = get(key);
+        if (old == null)
+            version++;
+        if (!super.containsKey(f)) {
+            // keep the case of the entry this one shadows, like a copy would
+            String shadowed = originalKey(key);
+            if (shadowed != null)
+                key = shadowed;
+            tombstones.remove(f);
+        }
+        super.put(key, value);
+        return old;
+    }
+
+    @Override
+    public String remove(Object key) {
+        String f = foldKey(key);
+        if (f == null)
+            return null;
+        String old = get(key);
+        if (old != null)
+            version++;
+        super.remove(f);
+        if (parent != null && parent.containsKey(key))
+            tombstones.add(f);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        tombstones.clear();
+        // keep keysVersion() moving forward once the parents no longer count
+        int before = keysVersion();
+        parent = null;
+        merged = null;
+        version = before + 1 - localKeysVersion();
+    }
+
+    @Override
+    public int size() {
+        return parent == null ? super.size() : sortedEntries().size();
+    }
+
+    @Override
+    int keysVersion() {
+        int v = 0;
+        EnvVars env = this;
+        while (env instanceof LayeredEnvVars) {
+            LayeredEnvVars l = (LayeredEnvVars) env;
+            v += l.version;
+            if (l.parent == null)
+                return v + l.localKeysVersion();
+            env = l.parent;
+        }
+        return v + env.keysVersion();
+    }
+
+    private int localKeysVersion() {
+        return super.keysVersion();
+    }
+
+    private List<Node<String>> localSortedEntries() {
+        return super.sortedEntries();
+    }
+
+    @Override
+    List<Node<String>> sortedEntries() {
+        if (parent == null)
+            return super.sortedEntries();
+
+        // merge from the bottom of the chain up, reusing what each layer kept
+        List<LayeredEnvVars> chain = new ArrayList<LayeredEnvVars>();
+        EnvVars env = this;
+        while (env instanceof LayeredEnvVars && ((LayeredEnvVars) env).parent != null) {
+            chain.add((LayeredEnvVars) env);
+            env = ((LayeredEnvVars) env).parent;
+        }
+        List<Node<String>> entries = env.sortedEntries();
+        int v = env.keysVersion();
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            LayeredEnvVars l = chain.get(i);
+            v += l.version;
+            Merged m = l.merged;
+            if (m == null || m.version != v)
+                l.merged = m = new Merged(l.merge(entries), v);
+            entries = m.entries;
+        }
+        return entries;
+    }
+
+    /**
+     * Merges the entries of this layer with those of its parent.
+     */
+    private List<Node<String>> merge(List<Node<String>> inherited) {
+        List<Node<String>> local = localSortedEntries();
+        List<Node<String>> merged = new ArrayList<Node<String>>(local.size() + inherited.size());
+        int i = 0, j = 0;
+        while (i < local.size() || j < inherited.size()) {
+            int c;
+            if (i >= local.size())
+                c = 1;
+            else if (j >= inherited.size())
+                c = -1;
+            else
+                c = foldedKeyOf(local.get(i)).compareTo(foldedKeyOf(inherited.get(j)));
+
+            if (c <= 0) {
+                merged.add(local.get(i++));
+                if (c == 0)
+                    j++;
+            } else {
+                Node<String> e = inherited.get(j++);
+                if (!tombstones.contains(foldedKeyOf(e)))
+                    merged.add(new InheritedEntry(e));
+            }
+        }
+        return Collections.unmodifiableList(merged);
+    }
+
+    /**
+     * Returns a flattened copy; see {@link #flatten()}.
+     */
+    @Override
+    public Object clone() {
+        return flatten();
+    }
+
+    private Object writeReplace() {
+        return flatten();
+    }
+
+    /**
+     * Merged entries together with the {@link #keysVersion()} they were built at, published
+     * as one object so that concurrent readers never pair a list with the wrong version.
+     */
+    private static final class Merged {
+        final List<Node<String>> entries;
+        final int                version;
+
+        Merged(List<Node<String>> entries, int version) {
+            this.entries = entries;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Entry of a parent seen through this layer. Its value is looked up again each time, as
+     * any layer in between may since have shadowed it. Setting its value puts it into this
+     * layer.
+     */
+    private final class InheritedEntry extends Node<String> {
+        InheritedEntry(Node<String> inherited) {
+            super(inherited.getKey(), foldedKeyOf(inherited), null);
+        }
+
+        @Override
+        public String getValue() {
+            return get(getKey());
+        }
+
+        @Override
+        public String setValue(String value) {
+            return put(getKey(), value);
+        }
+    }
+}
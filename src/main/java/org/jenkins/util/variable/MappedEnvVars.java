@@ -0,0 +1,338 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins project contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.util.variable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only environment variables stored in a file that is memory-mapped, so that many
+ * JVMs on one host can share a single page-cached copy of a large environment.
+ *
+ * <p>
+ * The file starts with a header (magic number, {@link #VERSION}, number of entries), followed
+ * by one fixed-size index record per entry, sorted by case-folded name, and a heap holding the
+ * strings as UTF-16 chars. Each record has the offset and length of the folded name, the name
+ * and the value. Lookups fold the name and binary search the index directly in the mapped
+ * buffer; only the value found is turned into a {@link String}. Opening a snapshot reads the
+ * index once to check that every record points inside the heap, so a truncated or corrupted
+ * file is rejected upfront rather than failing on some later lookup.
+ *
+ * <p>
+ * Instances are safe to use from many threads. The file must not be modified while mapped:
+ * {@link #write(Map, File)} replaces it with a new file instead.
+ */
+public final class MappedEnvVars extends AbstractMap<String, String> implements VariableResolver<String> {
+    /** Version of the file format written by this class. */
+    public static final int  VERSION     = 1;
+
+    private static final int MAGIC       = 0x454E5653; // "ENVS"
+    private static final int HEADER_SIZE = 12;
+    private static final int RECORD_SIZE = 24;
+
+    private final ByteBuffer buf;
+    private final int        size;
+
+    /**
+     * Reads the format from the remaining bytes of the given buffer, which must not change afterwards.
+     *
+     * @throws IllegalArgumentException
+     *      if the buffer doesn't hold data of this format, or is truncated or corrupted.
+     */
+    public MappedEnvVars(ByteBuffer buf) {
+        this.buf = buf.slice();
+        if (this.buf.remaining() < HEADER_SIZE || this.buf.getInt(0) != MAGIC)
+            throw new IllegalArgumentException("Not an environment snapshot");
+        int version = this.buf.getInt(4);
+        if (version != VERSION)
+            throw new IllegalArgumentException("Unsupported environment snapshot version: " + version);
+        size = this.buf.getInt(8);
+        if (size < 0 || HEADER_SIZE + (long) size * RECORD_SIZE > this.buf.limit())
+            throw new IllegalArgumentException("Truncated environment snapshot");
+        checkRecords();
+    }
+
+    /**
+     * Checks that the strings of all records lie within the heap, so that lookups and
+     * iteration never read outside the buffer.
+     */
+    private void checkRecords() {
+        int heap = HEADER_SIZE + size * RECORD_SIZE;
+        int limit = buf.limit();
+        for (int record = HEADER_SIZE; record < heap; record += 8) {
+            int offset = buf.getInt(record);
+            int len = buf.getInt(record + 4);
+            if (offset < heap || len < 0 || offset + 2L * len > limit)
+                throw new IllegalArgumentException("Corrupted environment snapshot: record "
+                                                   + (record - HEADER_SIZE) / RECORD_SIZE
+                                                   + " points outside the heap");
+        }
+    }
+
+    /**
+     * Maps the given file, written by {@link #write(Map, File)}.
+     */
+    public static MappedEnvVars open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            // the mapping stays valid after the file is closed
+            return new MappedEnvVars(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IllegalArgumentException e) {
+            IOException x = new IOException(file + ": " + e.getMessage());
+            x.initCause(e);
+            throw x;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Encodes the given variables in this format.
+     */
+    public static ByteBuffer encode(Map<String, String> env) {
+        if (!(env instanceof EnvVars))
+            env = new EnvVars(env); // sorted, and without duplicate names
+
+        int n = env.size();
+        String[] strings = new String[n * 3];
+        int i = 0;
+        long heap = 0;
+        for (Map.Entry<String, String> e : env.entrySet()) {
+            strings[i++] = CaseFoldedKey.foldedName(e.getKey());
+            strings[i++] = e.getKey();
+            strings[i++] = e.getValue();
+        }
+        for (String s : strings)
+            heap += s.length() * 2L;
+        long total = HEADER_SIZE + (long) n * RECORD_SIZE + heap;
+        if (total > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Environment too large: " + total + " bytes");
+
+        ByteBuffer buf = ByteBuffer.allocate((int) total);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(n);
+        int offset = HEADER_SIZE + n * RECORD_SIZE;
+        for (String s : strings) {
+            buf.putInt(offset).putInt(s.length());
+            offset += s.length() * 2;
+        }
+        for (String s : strings) {
+            for (int j = 0; j < s.length(); j++)
+                buf.putChar(s.charAt(j));
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Writes the given variables to the file. The data is written to a temporary file next to it
+     * first, then renamed, so that JVMs that have the previous file mapped keep seeing it intact.
+     */
+    public static void write(Map<String, String> env, File file) throws IOException {
+        ByteBuffer data = encode(env);
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                FileChannel channel = out.getChannel();
+                while (data.hasRemaining())
+                    channel.write(data);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                // Windows doesn't replace existing files
+                if (!file.delete() || !tmp.renameTo(file))
+                    throw new IOException("Failed to rename " + tmp + " to " + file);
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : string(i, 2);
+    }
+
+    public String resolve(String name) {
+        return get(name);
+    }
+
+    /**
+     * Expands the variables in the given string by using environment variables represented in 'this'.
+     */
+    public String expand(String s) {
+        if (s == null || s.indexOf('$') < 0)
+            return s;
+        return CompiledTemplate.of(s).render((VariableResolver<String>) this);
+    }
+
+    /**
+     * Returns a mutable copy.
+     */
+    public EnvVars toEnvVars() {
+        return new EnvVars(this);
+    }
+
+    private int indexOf(Object key) {
+        String f = CaseInsensitiveHashMap.foldKey(key);
+        if (f == null)
+            return -1;
+        int lo = 0, hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareFolded(mid, f);
+            if (c < 0)
+                lo = mid + 1;
+            else if (c > 0)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Compares the folded name of the given entry with <tt>f</tt>, like {@link String#compareTo}.
+     */
+    private int compareFolded(int entry, String f) {
+        int record = HEADER_SIZE + entry * RECORD_SIZE;
+        int offset = buf.getInt(record);
+        int len = buf.getInt(record + 4);
+        int n = Math.min(len, f.length());
+        for (int i = 0; i < n; i++) {
+            char c = buf.getChar(offset + i * 2);
+            char d = f.charAt(i);
+            if (c != d)
+                return c - d;
+        }
+        return len - f.length();
+    }
+
+    /**
+     * Reads a string of the given entry: 0 for the folded name, 1 for the name, 2 for the value.
+     */
+    private String string(int entry, int field) {
+        int record = HEADER_SIZE + entry * RECORD_SIZE + field * 8;
+        int offset = buf.getInt(record);
+        char[] chars = new char[buf.getInt(record + 4)];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = buf.getChar(offset + i * 2);
+        return new String(chars);
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new Iterator<Map.Entry<String, String>>() {
+                    private int next;
+
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    public Map.Entry<String, String> next() {
+                        if (next >= size)
+                            throw new NoSuchElementException();
+                        int i = next++;
+                        return new Entry(string(i, 1), string(i, 2));
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    private static final class Entry implements Map.Entry<String, String> {
+        private final String key;
+        private final String value;
+
+        Entry(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public String setValue(String value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return key.equals(e.getKey()) && value.equals(e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins project contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.util.variable;
+
+import java.util.Collection;
+
+/**
+ * Bloom filter over case-folded variable names.
+ *
+ * <p>
+ * {@link #mightContain(String)} never returns false for a name that was added, in any case,
+ * and returns true for about 1% of other names. Checking a name doesn't allocate.
+ */
+public final class NameFilter {
+    private static final int BITS_PER_NAME = 10;
+    private static final int HASHES        = 7;
+
+    private final long[]     bits;
+    private final int        numBits;
+
+    private NameFilter(int expectedNames) {
+        numBits = Math.max(64, expectedNames * BITS_PER_NAME);
+        bits = new long[(numBits + 63) / 64];
+    }
+
+    /**
+     * Creates a filter that contains the given names.
+     */
+    public static NameFilter of(Collection<String> names) {
+        NameFilter f = new NameFilter(names.size());
+        for (String name : names)
+            f.add(name);
+        return f;
+    }
+
+    private void add(String name) {
+        long h = hash(name);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * False if the name, ignoring case, is certainly not one of the names of this filter.
+     */
+    public boolean mightContain(String name) {
+        long h = hash(name);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Two independent 32 bit hashes of the case-folded name, computed without folding it into a new string.
+     */
+    private static long hash(String name) {
+        int h1 = 0;
+        int h2 = 0x9E3779B9;
+        for (int i = 0; i < name.length(); i++) {
+            char c = CaseFoldedKey.foldChar(name.charAt(i));
+            h1 = 31 * h1 + c;
+            h2 = (h2 ^ c) * 0x01000193;
+        }
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85EBCA6B;
+        h1 ^= h1 >>> 13;
+        h2 ^= h2 >>> 15;
+        return ((long) h2 << 32) | (h1 & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins project contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.util.variable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Reference graph of a set of overrides that can be updated entry by entry.
+ *
+ * <p>
+ * This keeps the same order as {@link OverrideOrderCalculator} &mdash; every variable after the
+ * variables it refers to, and <tt>XYZ+AAA</tt> variables last, in name order as when the overrides
+ * are held in an {@link EnvVars} &mdash; but when overrides are added,
+ * changed or removed, only the references of those entries are extracted again, and the order
+ * is repaired locally with the Pearce-Kelly dynamic topological sort: only the variables
+ * between the two ends of a new reference that breaks the order are moved.
+ *
+ * <p>
+ * Which references of a cycle {@link OverrideOrderCalculator} cuts depends on the whole graph,
+ * so as long as the overrides have cyclic references, or when a change makes one, the order is
+ * calculated again from scratch, and all the overrides need to be expanded again.
+ *
+ * <p>
+ * Not thread safe.
+ */
+public class OverrideDependencyGraph {
+    private final Map<String, String>                    target;
+
+    /** values of the overrides, except XYZ+AAA ones */
+    private final Map<CaseFoldedKey, String>             values     = new HashMap<CaseFoldedKey, String>();
+    /** XYZ+AAA overrides, in name order like the overrides of an {@link EnvVars} */
+    private final Map<CaseFoldedKey, String>             extensions = new TreeMap<CaseFoldedKey, String>();
+
+    /** variables directly referred from each override, self references excluded */
+    private final Map<CaseFoldedKey, Set<CaseFoldedKey>> referees   = new HashMap<CaseFoldedKey, Set<CaseFoldedKey>>();
+    /** reverse of {@link #referees}, also for variables that are not overridden */
+    private final Map<CaseFoldedKey, Set<CaseFoldedKey>> referrers  = new HashMap<CaseFoldedKey, Set<CaseFoldedKey>>();
+    /** references ignored for the order, from referrer to referees */
+    private final Map<CaseFoldedKey, Set<CaseFoldedKey>> cut        = new HashMap<CaseFoldedKey, Set<CaseFoldedKey>>();
+
+    /** position of each override in the order; only relative values matter */
+    private final Map<CaseFoldedKey, Integer>            ord        = new HashMap<CaseFoldedKey, Integer>();
+    private int                                          nextOrd;
+
+    private List<String>                                 orderedVariableNames;
+
+    /**
+     * @param target
+     *      variables the overrides are applied to, as they are before any override; see
+     *      {@link OverrideOrderCalculator}. Only looked up.
+     */
+    public OverrideDependencyGraph(Map<String, String> target, Map<String, String> overrides) {
+        this.target = target;
+
+        for (Map.Entry<String, String> e : overrides.entrySet()) {
+            if (e.getKey().indexOf('+') > 0)
+                extensions.put(CaseFoldedKey.of(e.getKey()), e.getValue());
+            else
+                values.put(CaseFoldedKey.of(e.getKey()), e.getValue());
+        }
+        for (Map.Entry<CaseFoldedKey, String> e : values.entrySet())
+            link(e.getKey(), e.getValue());
+        calculate();
+    }
+
+    /**
+     * Takes the order of a full calculation, and the references it had to cut.
+     */
+    private void calculate() {
+        Map<String, String> overrides = new TreeMap<String, String>(CaseInsensitiveComparator.INSTANCE);
+        for (Map.Entry<CaseFoldedKey, String> e : values.entrySet())
+            overrides.put(e.getKey().getName(), e.getValue());
+        for (Map.Entry<CaseFoldedKey, String> e : extensions.entrySet())
+            overrides.put(e.getKey().getName(), e.getValue());
+
+        ord.clear();
+        cut.clear();
+        nextOrd = 0;
+        for (String name : new OverrideOrderCalculator(target, overrides).getOrderedVariableNames()) {
+            CaseFoldedKey key = CaseFoldedKey.of(name);
+            if (values.containsKey(key))
+                ord.put(key, nextOrd++);
+        }
+        for (CaseFoldedKey referrer : values.keySet()) {
+            for (CaseFoldedKey referee : referees.get(referrer)) {
+                if (ord.containsKey(referee) && ord.get(referee) > ord.get(referrer))
+                    markCut(referrer, referee);
+            }
+        }
+        orderedVariableNames = null;
+    }
+
+    /**
+     * True if some references are cut because they are cyclic.
+     */
+    public boolean hasCutReferences() {
+        return !cut.isEmpty();
+    }
+
+    /**
+     * Calculates the order again from scratch, for instance because variables that are
+     * overridden in a cycle were added to or removed from the target, which can change the
+     * references that are cut.
+     *
+     * @return
+     *      names of all the overrides, except <tt>XYZ+AAA</tt> ones, in override order.
+     */
+    public List<String> recalculate() {
+        calculate();
+        return dependentsOf(values.keySet(), false);
+    }
+
+    /**
+     * Position of the given override, except <tt>XYZ+AAA</tt> ones, in the current order, or null.
+     * Only compare it with the positions of other overrides until the next change.
+     */
+    Integer positionOf(CaseFoldedKey key) {
+        return ord.get(key);
+    }
+
+    /**
+     * Names of the <tt>XYZ+AAA</tt> overrides, in the order they are applied.
+     */
+    List<String> getExtensionNames() {
+        List<String> names = new ArrayList<String>(extensions.size());
+        for (CaseFoldedKey key : extensions.keySet())
+            names.add(key.getName());
+        return names;
+    }
+
+    /**
+     * Current override order. See {@link OverrideOrderCalculator#getOrderedVariableNames()}.
+     */
+    public List<String> getOrderedVariableNames() {
+        if (orderedVariableNames == null) {
+            CaseFoldedKey[] keys = ord.keySet().toArray(new CaseFoldedKey[ord.size()]);
+            Arrays.sort(keys, byOrd);
+            List<String> names = new ArrayList<String>(keys.length + extensions.size());
+            for (CaseFoldedKey key : keys)
+                names.add(key.getName());
+            for (CaseFoldedKey key : extensions.keySet())
+                names.add(key.getName());
+            orderedVariableNames = Collections.unmodifiableList(names);
+        }
+        return orderedVariableNames;
+    }
+
+    /**
+     * Current value of the given override, or null.
+     */
+    public String getValue(String name) {
+        CaseFoldedKey key = CaseFoldedKey.of(name);
+        String v = values.get(key);
+        return v != null ? v : extensions.get(key);
+    }
+
+    /**
+     * Variables the given override refers to directly, excluding itself.
+     */
+    public Set<String> getReferences(String name) {
+        Set<CaseFoldedKey> r = referees.get(CaseFoldedKey.of(name));
+        if (r == null)
+            return Collections.emptySet();
+        Set<String> names = new HashSet<String>();
+        for (CaseFoldedKey key : r)
+            names.add(key.getName());
+        return names;
+    }
+
+    /**
+     * Adds or changes an override.
+     *
+     * @return see {@link #update(Map, Collection)}.
+     */
+    public List<String> put(String name, String value) {
+        return update(Collections.singletonMap(name, value), Collections.<String> emptySet());
+    }
+
+    /**
+     * Removes an override.
+     *
+     * @return see {@link #update(Map, Collection)}.
+     */
+    public List<String> remove(String name) {
+        return update(Collections.<String, String> emptyMap(), Collections.singleton(name));
+    }
+
+    /**
+     * Applies a set of changes.
+     *
+     * @param changed
+     *      overrides that were added or whose value changed.
+     * @param removed
+     *      names of overrides that were removed.
+     * @return
+     *      names of the variables that need to be expanded again: the changed overrides and
+     *      those that refer directly or indirectly to a changed or removed one, or all the
+     *      overrides if the order was calculated again, in override order, followed by the
+     *      removed overrides and the changed <tt>XYZ+AAA</tt> ones.
+     */
+    public List<String> update(Map<String, String> changed, Collection<String> removed) {
+        boolean recalculate = !cut.isEmpty();
+        Set<CaseFoldedKey> touched = new HashSet<CaseFoldedKey>();
+        List<String> others = new ArrayList<String>();
+
+        for (String name : removed) {
+            CaseFoldedKey key = CaseFoldedKey.of(name);
+            if (name.indexOf('+') > 0) {
+                if (extensions.remove(key) != null)
+                    others.add(name);
+                continue;
+            }
+            if (values.remove(key) == null)
+                continue;
+            unlink(key);
+            ord.remove(key);
+            touched.add(key);
+            others.add(name);
+        }
+
+        List<CaseFoldedKey> added = new ArrayList<CaseFoldedKey>();
+        for (Map.Entry<String, String> e : changed.entrySet()) {
+            CaseFoldedKey key = CaseFoldedKey.of(e.getKey());
+            if (e.getKey().indexOf('+') > 0) {
+                if (!e.getValue().equals(extensions.put(key, e.getValue())))
+                    others.add(e.getKey());
+                continue;
+            }
+            String old = values.put(key, e.getValue());
+            if (e.getValue().equals(old))
+                continue;
+            touched.add(key);
+            if (old != null) {
+                unlink(key);
+            } else {
+                ord.put(key, nextOrd++);
+                added.add(key);
+            }
+            link(key, e.getValue());
+        }
+
+        for (CaseFoldedKey key : touched) {
+            if (recalculate || !values.containsKey(key))
+                continue;
+            for (CaseFoldedKey referee : referees.get(key))
+                recalculate |= !addOrderEdge(key, referee);
+        }
+        // references to variables that just became overrides now constrain the order too.
+        for (CaseFoldedKey key : added) {
+            Set<CaseFoldedKey> r = referrers.get(key);
+            if (recalculate || r == null)
+                continue;
+            for (CaseFoldedKey referrer : r)
+                recalculate |= !addOrderEdge(referrer, key);
+        }
+
+        orderedVariableNames = null;
+        List<String> result = recalculate ? recalculate() : dependentsOf(touched, false);
+        result.addAll(others);
+        return result;
+    }
+
+    /**
+     * Names of the overrides whose expanded value may change when the values of the given
+     * variables change in the target, in override order: overridden variables among the given
+     * ones, and overrides that refer to them directly or indirectly.
+     */
+    public List<String> getDependents(Collection<String> names) {
+        Set<CaseFoldedKey> keys = new HashSet<CaseFoldedKey>();
+        for (String name : names)
+            keys.add(CaseFoldedKey.of(name));
+        return dependentsOf(keys, true);
+    }
+
+    /**
+     * @param inTarget
+     *      true if the values of the sources changed in the target rather than their overrides,
+     *      so that cut references to them matter too.
+     */
+    private List<String> dependentsOf(Set<CaseFoldedKey> sources, boolean inTarget) {
+        Set<CaseFoldedKey> seen = new HashSet<CaseFoldedKey>(sources);
+        List<CaseFoldedKey> queue = new ArrayList<CaseFoldedKey>(sources);
+        for (int i = 0; i < queue.size(); i++) {
+            CaseFoldedKey n = queue.get(i);
+            Set<CaseFoldedKey> r = referrers.get(n);
+            if (r == null)
+                continue;
+            for (CaseFoldedKey referrer : r) {
+                // a cut reference is expanded before the override, so it never sees its value
+                if ((!isCut(referrer, n) || inTarget && sources.contains(n)) && seen.add(referrer))
+                    queue.add(referrer);
+            }
+        }
+
+        List<CaseFoldedKey> dependents = new ArrayList<CaseFoldedKey>();
+        for (CaseFoldedKey key : seen) {
+            if (ord.containsKey(key))
+                dependents.add(key);
+        }
+        Collections.sort(dependents, byOrd);
+
+        List<String> names = new ArrayList<String>(dependents.size());
+        for (CaseFoldedKey key : dependents)
+            names.add(key.getName());
+        return names;
+    }
+
+    /**
+     * Records the references of an override.
+     */
+    private void link(CaseFoldedKey key, String value) {
+        Set<CaseFoldedKey> refs = new HashSet<CaseFoldedKey>();
+        for (String name : Util.extractReferences(value)) {
+            CaseFoldedKey referee = CaseFoldedKey.of(name);
+            if (!referee.equals(key))
+                refs.add(referee);
+        }
+        referees.put(key, refs);
+        for (CaseFoldedKey referee : refs) {
+            Set<CaseFoldedKey> r = referrers.get(referee);
+            if (r == null)
+                referrers.put(referee, r = new HashSet<CaseFoldedKey>());
+            r.add(key);
+        }
+    }
+
+    /**
+     * Forgets the references of an override.
+     */
+    private void unlink(CaseFoldedKey key) {
+        Set<CaseFoldedKey> refs = referees.remove(key);
+        if (refs != null) {
+            for (CaseFoldedKey referee : refs) {
+                Set<CaseFoldedKey> r = referrers.get(referee);
+                r.remove(key);
+                if (r.isEmpty())
+                    referrers.remove(referee);
+            }
+        }
+        cut.remove(key);
+    }
+
+    private void markCut(CaseFoldedKey referrer, CaseFoldedKey referee) {
+        Set<CaseFoldedKey> c = cut.get(referrer);
+        if (c == null)
+            cut.put(referrer, c = new HashSet<CaseFoldedKey>());
+        c.add(referee);
+    }
+
+    private boolean isCut(CaseFoldedKey referrer, CaseFoldedKey referee) {
+        Set<CaseFoldedKey> c = cut.get(referrer);
+        return c != null && c.contains(referee);
+    }
+
+    /**
+     * True if the reference from <tt>referrer</tt> to <tt>referee</tt> constrains the order.
+     */
+    private boolean isOrderEdge(CaseFoldedKey referrer, CaseFoldedKey referee) {
+        return ord.containsKey(referrer) && ord.containsKey(referee) && !isCut(referrer, referee);
+    }
+
+    /**
+     * Makes the order respect the reference from <tt>referrer</tt> to <tt>referee</tt>.
+     *
+     * @return
+     *      false, leaving the order as it was, if the reference closes a cycle.
+     */
+    private boolean addOrderEdge(CaseFoldedKey referrer, CaseFoldedKey referee) {
+        if (!isOrderEdge(referrer, referee))
+            return true;
+        int lower = ord.get(referrer);
+        int upper = ord.get(referee);
+        if (upper < lower)
+            return true;
+
+        // overrides that must come after the referrer and are placed before the referee.
+        Set<CaseFoldedKey> forward = new HashSet<CaseFoldedKey>();
+        if (!collectReferrers(referrer, referee, upper, forward))
+            return false;
+        // overrides that must come before the referee and are placed after the referrer.
+        Set<CaseFoldedKey> backward = new HashSet<CaseFoldedKey>();
+        collectReferees(referee, lower, backward);
+        reorder(backward, forward);
+        return true;
+    }
+
+    /**
+     * Collects <tt>start</tt> and its direct and indirect referrers placed up to <tt>upper</tt>.
+     *
+     * @return
+     *      false if <tt>end</tt> is one of them, so that a reference from <tt>start</tt> to
+     *      <tt>end</tt> closes a cycle.
+     */
+    private boolean collectReferrers(CaseFoldedKey start, CaseFoldedKey end, int upper, Set<CaseFoldedKey> result) {
+        List<CaseFoldedKey> stack = new ArrayList<CaseFoldedKey>();
+        result.add(start);
+        stack.add(start);
+        while (!stack.isEmpty()) {
+            CaseFoldedKey n = stack.remove(stack.size() - 1);
+            Set<CaseFoldedKey> r = referrers.get(n);
+            if (r == null)
+                continue;
+            for (CaseFoldedKey referrer : r) {
+                if (!isOrderEdge(referrer, n) || result.contains(referrer))
+                    continue;
+                if (referrer.equals(end))
+                    return false;
+                if (ord.get(referrer) <= upper) {
+                    result.add(referrer);
+                    stack.add(referrer);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collects <tt>start</tt> and its direct and indirect referees placed from <tt>lower</tt>.
+     */
+    private void collectReferees(CaseFoldedKey start, int lower, Set<CaseFoldedKey> result) {
+        List<CaseFoldedKey> stack = new ArrayList<CaseFoldedKey>();
+        result.add(start);
+        stack.add(start);
+        while (!stack.isEmpty()) {
+            CaseFoldedKey n = stack.remove(stack.size() - 1);
+            for (CaseFoldedKey referee : referees.get(n)) {
+                if (isOrderEdge(n, referee) && ord.get(referee) > lower && result.add(referee))
+                    stack.add(referee);
+            }
+        }
+    }
+
+    /**
+     * Moves the <tt>before</tt> variables ahead of the <tt>after</tt> ones, reusing their positions.
+     */
+    private void reorder(Set<CaseFoldedKey> before, Set<CaseFoldedKey> after) {
+        List<CaseFoldedKey> b = new ArrayList<CaseFoldedKey>(before);
+        List<CaseFoldedKey> a = new ArrayList<CaseFoldedKey>(after);
+        Collections.sort(b, byOrd);
+        Collections.sort(a, byOrd);
+
+        int[] positions = new int[a.size() + b.size()];
+        int i = 0;
+        for (CaseFoldedKey key : b)
+            positions[i++] = ord.get(key);
+        for (CaseFoldedKey key : a)
+            positions[i++] = ord.get(key);
+        Arrays.sort(positions);
+
+        i = 0;
+        for (CaseFoldedKey key : b)
+            ord.put(key, positions[i++]);
+        for (CaseFoldedKey key : a)
+            ord.put(key, positions[i++]);
+    }
+
+    private final Comparator<CaseFoldedKey> byOrd = new Comparator<CaseFoldedKey>() {
+        public int compare(CaseFoldedKey lhs, CaseFoldedKey rhs) {
+            return ord.get(lhs).compareTo(ord.get(rhs));
+        }
+    };
+}
@@ -1,21 +1,26 @@
 package org.jenkins.util.variable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
-import org.jenkins.util.variable.CyclicGraphDetector.CycleDetectedException;
-
 /**
  * Calculates the order to override variables.
  * 
  * Sort variables with topological sort with their reference graph.
+ * Cyclic references are cut as they are found by a single depth first traversal. After a cut,
+ * only the part of the traversal that followed the cut reference is done again, so the same
+ * references are cut as when the whole traversal was restarted after each cut.
  * 
  * This is package accessible for testing purpose.
  */
@@ -23,58 +28,40 @@ public class OverrideOrderCalculator {
     private static Logger LOGGER = Logger.getLogger(EnvVars.class.getName());
 
     /**
-     * Extract variables referred directly from a variable.
+     * Number of overrides from which references are extracted in parallel,
+     * when an executor is given.
      */
-    private static class TraceResolver implements VariableResolver<String> {
-        private final Comparator<? super String> comparator;
-        public Set<String>                       referredVariables;
+    public static final int                        PARALLEL_SCAN_THRESHOLD = 10000;
 
-        public TraceResolver(Comparator<? super String> comparator) {
-            this.comparator = comparator;
-            clear();
-        }
+    private final Map<String, String>              target;
+    private final Map<String, String>              overrides;
+    private final ExecutorService                  executor;
 
-        public void clear() {
-            referredVariables = new TreeSet<String>(comparator);
-        }
+    private Map<CaseFoldedKey, Set<CaseFoldedKey>> refereeSetMap;
+    private List<String>                           orderedVariableNames;
 
-        public String resolve(String name) {
-            referredVariables.add(name);
-            return "";
-        }
+    /**
+     * @param target
+     *      variables the overrides are applied to, such as {@link EnvVars} or
+     *      {@link PersistentEnvVars}; their names should be looked up ignoring case.
+     */
+    public OverrideOrderCalculator(Map<String, String> target, Map<String, String> overrides) {
+        this(target, overrides, null);
     }
 
-    private static class VariableReferenceSorter extends CyclicGraphDetector<String> {
-        // map from a variable to a set of variables that variable refers.
-        private final Map<String, Set<String>> refereeSetMap;
-
-        public VariableReferenceSorter(Map<String, Set<String>> refereeSetMap) {
-            this.refereeSetMap = refereeSetMap;
-        }
-
-        @Override
-        protected Iterable<? extends String> getEdges(String n) {
-            // return variables referred from the variable.
-            if (!refereeSetMap.containsKey(n)) {
-                // there is a case a non-existing variable is referred...
-                return Collections.emptySet();
-            }
-            return refereeSetMap.get(n);
-        }
-    };
-
-    private final Comparator<? super String> comparator;
-
-    private final EnvVars                    target;
-    private final Map<String, String>        overrides;
-
-    private Map<String, Set<String>>         refereeSetMap;
-    private List<String>                     orderedVariableNames;
-
-    public OverrideOrderCalculator(EnvVars target, Map<String, String> overrides) {
-        comparator = target.comparator();
+    /**
+     * Calculates the order, extracting the references of large override maps
+     * (see {@link #PARALLEL_SCAN_THRESHOLD}) on the given executor.
+     * The result doesn't depend on whether the scan ran in parallel.
+     *
+     * @param executor
+     *      null to always scan in the calling thread.
+     */
+    public OverrideOrderCalculator(Map<String, String> target, Map<String, String> overrides,
+                                   ExecutorService executor) {
         this.target = target;
         this.overrides = overrides;
+        this.executor = executor;
         scan();
     }
 
@@ -82,22 +69,23 @@ public class OverrideOrderCalculator {
         return orderedVariableNames;
     }
 
-    // Cut the reference to the variable in a cycle.
-    private void cutCycleAt(String referee, List<String> cycle) {
+    // Cut the reference to the variable in a cycle, and return the index of the referrer.
+    private int cutCycleAt(CaseFoldedKey referee, List<CaseFoldedKey> cycle) {
         // cycle contains variables in referrer-to-referee order.
         // This should not be negative, for the first and last one is same.
         int refererIndex = cycle.lastIndexOf(referee) - 1;
 
         assert (refererIndex >= 0);
-        String referrer = cycle.get(refererIndex);
+        CaseFoldedKey referrer = cycle.get(refererIndex);
         boolean removed = refereeSetMap.get(referrer).remove(referee);
         assert (removed);
         LOGGER.warning(String.format("Cyclic reference detected: %s", Util.join(cycle, " -> ")));
         LOGGER.warning(String.format("Cut the reference %s -> %s", referrer, referee));
+        return refererIndex;
     }
 
-    // Cut the variable reference in a cycle.
-    private void cutCycle(List<String> cycle) {
+    // Cut the variable reference in a cycle, and return the index of the referrer.
+    private int cutCycle(List<CaseFoldedKey> cycle) {
         // if an existing variable is contained in that cycle,
         // cut the cycle with that variable:
         // existing:
@@ -106,70 +94,218 @@ public class OverrideOrderCalculator {
         //   PATH1=/usr/local/bin:${PATH}
         //   PATH=/opt/something/bin:${PATH1}
         // then consider reference PATH1 -> PATH can be ignored.
-        for (String referee : cycle) {
-            if (target.containsKey(referee)) {
-                cutCycleAt(referee, cycle);
-                return;
-            }
+        for (CaseFoldedKey referee : cycle) {
+            if (target.containsKey(referee.getName()))
+                return cutCycleAt(referee, cycle);
         }
 
         // if not, cut the reference to the first one.
-        cutCycleAt(cycle.get(0), cycle);
+        return cutCycleAt(cycle.get(0), cycle);
     }
 
     /**
      * Scan all variables and list all referring variables.
      */
     public void scan() {
-        refereeSetMap = new TreeMap<String, Set<String>>(comparator);
+        refereeSetMap = new TreeMap<CaseFoldedKey, Set<CaseFoldedKey>>();
         List<String> extendingVariableNames = new ArrayList<String>();
 
-        TraceResolver resolver = new TraceResolver(comparator);
+        Map<CaseFoldedKey, CaseFoldedKey> canonicalKeys = new HashMap<CaseFoldedKey, CaseFoldedKey>();
+        for (String name : overrides.keySet()) {
+            CaseFoldedKey key = CaseFoldedKey.of(name);
+            canonicalKeys.put(key, key);
+        }
 
+        List<CaseFoldedKey> keys = new ArrayList<CaseFoldedKey>(overrides.size());
+        List<String> values = new ArrayList<String>(overrides.size());
         for (Map.Entry<String, String> entry : overrides.entrySet()) {
             if (entry.getKey().indexOf('+') > 0) {
                 // XYZ+AAA variables should be always processed in last.
                 extendingVariableNames.add(entry.getKey());
                 continue;
             }
-            resolver.clear();
-            Util.replaceMacro(entry.getValue(), resolver);
+            keys.add(canonicalKeys.get(CaseFoldedKey.of(entry.getKey())));
+            values.add(entry.getValue());
+        }
+
+        // Variables directly referred from each scanning variable.
+        List<Set<CaseFoldedKey>> refereeSets = extractReferences(keys, values, canonicalKeys);
+        for (int i = 0; i < keys.size(); i++)
+            refereeSetMap.put(keys.get(i), refereeSets.get(i));
+
+        orderedVariableNames = new ArrayList<String>(overrides.size());
+        sortReferences();
+        orderedVariableNames.addAll(extendingVariableNames);
+    }
 
-            // Variables directly referred from the current scanning variable.
-            Set<String> refereeSet = resolver.referredVariables;
+    /**
+     * Extracts the variables referred from each value, in parallel if there are many.
+     */
+    private List<Set<CaseFoldedKey>> extractReferences(final List<CaseFoldedKey> keys, final List<String> values,
+                                                       final Map<CaseFoldedKey, CaseFoldedKey> canonicalKeys) {
+        int n = keys.size();
+        final List<Set<CaseFoldedKey>> refereeSets = new ArrayList<Set<CaseFoldedKey>>(
+            Collections.<Set<CaseFoldedKey>> nCopies(n, null));
+        if (executor == null || n < PARALLEL_SCAN_THRESHOLD) {
+            extractReferences(keys, values, canonicalKeys, refereeSets, 0, n);
+            return refereeSets;
+        }
+
+        int parts = Math.max(1, n / (PARALLEL_SCAN_THRESHOLD / 4));
+        List<Future<?>> futures = new ArrayList<Future<?>>(parts);
+        for (int p = 0; p < parts; p++) {
+            final int from = (int) ((long) n * p / parts);
+            final int to = (int) ((long) n * (p + 1) / parts);
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    extractReferences(keys, values, canonicalKeys, refereeSets, from, to);
+                }
+            }));
+        }
+        try {
+            for (Future<?> f : futures)
+                f.get();
+        } catch (InterruptedException e) {
+            for (Future<?> f : futures)
+                f.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scanning overrides", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+        return refereeSets;
+    }
+
+    private static void extractReferences(List<CaseFoldedKey> keys, List<String> values,
+                                          Map<CaseFoldedKey, CaseFoldedKey> canonicalKeys,
+                                          List<Set<CaseFoldedKey>> refereeSets, int from, int to) {
+        List<String> names = new ArrayList<String>();
+        for (int i = from; i < to; i++) {
+            names.clear();
+            Util.extractReferences(values.get(i), names);
+            Set<CaseFoldedKey> refereeSet = new TreeSet<CaseFoldedKey>();
+            for (String name : names) {
+                // use the override's own key objects for references to overridden variables.
+                CaseFoldedKey key = CaseFoldedKey.of(name);
+                CaseFoldedKey canonical = canonicalKeys.get(key);
+                refereeSet.add(canonical != null ? canonical : key);
+            }
             // Ignore self reference.
-            refereeSet.remove(entry.getKey());
-            refereeSetMap.put(entry.getKey(), refereeSet);
+            refereeSet.remove(keys.get(i));
+            refereeSets.set(i, refereeSet);
         }
+    }
+
+    /**
+     * Adds the overridden variables to {@link #orderedVariableNames} in post order of a depth
+     * first traversal of the reference graph, so that every variable comes after the
+     * variables it refers to, cutting cyclic references with {@link #cutCycle(List)}.
+     *
+     * <p>
+     * Variables are visited in name order, and their references too. When a cut reference
+     * is not the one that closed the cycle, but one the traversal followed earlier on the
+     * current path, the variables found since following it are forgotten and the traversal
+     * goes on with the next reference of the referrer, just as a traversal restarted from
+     * scratch would.
+     */
+    private void sortReferences() {
+        int n = refereeSetMap.size();
+        CaseFoldedKey[] nodes = refereeSetMap.keySet().toArray(new CaseFoldedKey[n]);
+        Map<CaseFoldedKey, Integer> ids = new HashMap<CaseFoldedKey, Integer>(n * 4 / 3 + 1);
+        for (int i = 0; i < n; i++)
+            ids.put(nodes[i], i);
+
+        boolean[] visited = new boolean[n];
+        int[] discovered = new int[n];
+        int discoveredCount = 0;
+        int[] sorted = new int[n];
+        int sortedCount = 0;
+
+        // the current path, with the state of the traversal when each variable was reached
+        int[] path = new int[n];
+        int[][] pathEdges = new int[n][];
+        int[] pathEdge = new int[n];
+        int[] pathDiscovered = new int[n];
+        int[] pathSorted = new int[n];
+        int[] position = new int[n];
+        int depth = 0;
+        Arrays.fill(position, -1);
 
-        VariableReferenceSorter sorter;
-        while (true) {
-            sorter = new VariableReferenceSorter(refereeSetMap);
-            try {
-                sorter.run(refereeSetMap.keySet());
-            } catch (CycleDetectedException e) {
-                // cyclic reference found.
-                // cut the cycle and retry.
-                @SuppressWarnings("unchecked")
-                List<String> cycle = (List<String>) e.cycle;
-                cutCycle(cycle);
+        for (int start = 0; start < n; start++) {
+            if (visited[start])
                 continue;
+
+            int w = start;
+            while (true) {
+                if (w >= 0) {
+                    visited[w] = true;
+                    pathDiscovered[depth] = discoveredCount;
+                    pathSorted[depth] = sortedCount;
+                    discovered[discoveredCount++] = w;
+                    position[w] = depth;
+                    path[depth] = w;
+                    pathEdges[depth] = edgesOf(nodes[w], ids);
+                    pathEdge[depth] = 0;
+                    depth++;
+                }
+                if (depth == 0)
+                    break;
+
+                w = -1;
+                int top = depth - 1;
+                if (pathEdge[top] < pathEdges[top].length) {
+                    int q = pathEdges[top][pathEdge[top]++];
+                    if (position[q] >= 0) {
+                        List<CaseFoldedKey> cycle = new ArrayList<CaseFoldedKey>(depth - position[q] + 1);
+                        for (int i = position[q]; i < depth; i++)
+                            cycle.add(nodes[path[i]]);
+                        cycle.add(nodes[q]);
+                        int referrer = position[q] + cutCycle(cycle);
+                        if (referrer < top) {
+                            // forget what was found through the cut reference
+                            int from = referrer + 1;
+                            for (int i = pathDiscovered[from]; i < discoveredCount; i++)
+                                visited[discovered[i]] = false;
+                            for (int i = from; i < depth; i++)
+                                position[path[i]] = -1;
+                            discoveredCount = pathDiscovered[from];
+                            sortedCount = pathSorted[from];
+                            depth = from;
+                        }
+                    } else if (!visited[q]) {
+                        w = q;
+                    }
+                    continue;
+                }
+
+                depth--;
+                position[path[top]] = -1;
+                sorted[sortedCount++] = path[top];
             }
-            break;
         }
 
-        // When A refers B, the last appearance of B always comes after
-        // the last appearance of A.
-        List<String> reversedDuplicatedOrder = new ArrayList<String>(sorter.getSorted());
-        Collections.reverse(reversedDuplicatedOrder);
+        for (int i = 0; i < sortedCount; i++)
+            orderedVariableNames.add(nodes[sorted[i]].getName());
+    }
 
-        orderedVariableNames = new ArrayList<String>(overrides.size());
-        for (String key : reversedDuplicatedOrder) {
-            if (overrides.containsKey(key) && !orderedVariableNames.contains(key)) {
-                orderedVariableNames.add(key);
-            }
+    /**
+     * Returns the overridden variables the given one still refers to, in name order.
+     * References to variables that are not overridden don't affect the order.
+     */
+    private int[] edgesOf(CaseFoldedKey key, Map<CaseFoldedKey, Integer> ids) {
+        Set<CaseFoldedKey> referees = refereeSetMap.get(key);
+        int[] e = new int[referees.size()];
+        int j = 0;
+        for (CaseFoldedKey referee : referees) {
+            Integer id = ids.get(referee);
+            if (id != null)
+                e[j++] = id;
         }
-        Collections.reverse(orderedVariableNames);
-        orderedVariableNames.addAll(extendingVariableNames);
+        return j == e.length ? e : Arrays.copyOf(e, j);
     }
 }
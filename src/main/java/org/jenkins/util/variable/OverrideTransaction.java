@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins project contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.util.variable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Overrides staged to be applied together.
+ *
+ * <p>
+ * Calls are recorded in order and only run on {@link #commit}, with the same semantics as the
+ * {@link EnvVars} methods of the same names, including <tt>PATH+XYZ</tt> handling. Only
+ * committing to a {@link ConcurrentEnvVars} is atomic: the result is published as one new
+ * snapshot, so concurrent readers see either none or all of the staged calls. Committing to
+ * an {@link EnvVars} computes the result in a {@link LayeredEnvVars} over it and only then
+ * copies the changed entries one by one, so a failing staged call leaves it unchanged, but
+ * the copy itself is an ordinary sequence of puts and removes. Either way the cost depends
+ * on the number of changed entries, not on the size of the environment.
+ *
+ * <p>
+ * A transaction can be committed any number of times. Not thread safe while staging.
+ */
+public final class OverrideTransaction {
+    private final List<Op> ops = new ArrayList<Op>();
+
+    /**
+     * Stages {@link EnvVars#override(String, String)}.
+     *
+     * @return this
+     */
+    public OverrideTransaction override(String key, String value) {
+        if (key == null)
+            throw new IllegalArgumentException("Null key");
+        ops.add(new Op(key, value, null));
+        return this;
+    }
+
+    /**
+     * Stages {@link EnvVars#overrideAll(Map)}. The map is copied.
+     *
+     * @return this
+     */
+    public OverrideTransaction overrideAll(Map<String, String> all) {
+        for (Map.Entry<String, String> e : all.entrySet())
+            override(e.getKey(), e.getValue());
+        return this;
+    }
+
+    /**
+     * Stages {@link EnvVars#overrideExpandingAll(Map)}, which expands against the variables as
+     * they are when it runs during the commit. The map is copied.
+     *
+     * @return this
+     */
+    public OverrideTransaction overrideExpandingAll(Map<String, String> all) {
+        ops.add(new Op(null, null, new LinkedHashMap<String, String>(all)));
+        return this;
+    }
+
+    /**
+     * Number of staged calls, counting each entry of {@link #overrideAll(Map)}.
+     */
+    public int size() {
+        return ops.size();
+    }
+
+    /**
+     * Applies the staged calls to <tt>env</tt>. If any of them fails, <tt>env</tt> is left unchanged.
+     * Otherwise the changed entries are then put into or removed from <tt>env</tt> one at a time;
+     * this is not atomic, and like any other change to an {@link EnvVars} it must not race with
+     * readers. Use {@link #commit(ConcurrentEnvVars)} to publish to concurrent readers.
+     *
+     * @return env
+     */
+    public EnvVars commit(EnvVars env) {
+        LayeredEnvVars layer = new LayeredEnvVars(env);
+        for (Op op : ops)
+            op.applyTo(layer);
+        layer.commit();
+        return env;
+    }
+
+    /**
+     * Applies the staged calls to <tt>env</tt> as one atomic change. If another thread changes
+     * <tt>env</tt> in the meantime, the calls are applied again on top of its changes.
+     *
+     * @return the snapshot that was published.
+     */
+    public PersistentEnvVars commit(ConcurrentEnvVars env) {
+        final PersistentEnvVars[] published = new PersistentEnvVars[1];
+        env.update(new ConcurrentEnvVars.Update() {
+            public PersistentEnvVars apply(PersistentEnvVars snapshot) {
+                return published[0] = applyTo(snapshot);
+            }
+        });
+        return published[0];
+    }
+
+    /**
+     * Returns the result of the staged calls on the given version.
+     */
+    public PersistentEnvVars applyTo(PersistentEnvVars env) {
+        for (Op op : ops)
+            env = op.applyTo(env);
+        return env;
+    }
+
+    /**
+     * One staged call: an override, or an expanding override of a whole map.
+     */
+    private static final class Op {
+        private final String              key;
+        private final String              value;
+        private final Map<String, String> expanding;
+
+        Op(String key, String value, Map<String, String> expanding) {
+            this.key = key;
+            this.value = value;
+            this.expanding = expanding;
+        }
+
+        void applyTo(EnvVars env) {
+            if (expanding != null)
+                env.overrideExpandingAll(expanding);
+            else
+                env.override(key, value);
+        }
+
+        PersistentEnvVars applyTo(PersistentEnvVars env) {
+            if (expanding != null)
+                return env.overrideExpandingAll(expanding);
+            return env.override(key, value);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins project contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.util.variable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Value of a <tt>PATH</tt>-like variable as a list of segments, to build up many
+ * <tt>PATH+XYZ</tt> overrides without copying the whole value for each of them.
+ *
+ * <p>
+ * Segments are kept in a deque, so adding them at either end costs the same regardless of the
+ * length of the list, and the string form is only built when {@link #toString()} is called,
+ * then kept until the list changes. The separator is given explicitly, since the list may be
+ * meant for an agent whose separator differs from {@link File#pathSeparatorChar}.
+ *
+ * <p>
+ * With deduplication on, each segment is kept once, at the position of its first occurrence:
+ * prepending a segment that is already there moves it to the front, and appending one does
+ * nothing. That doesn't change which directory a lookup through the path finds, and keeps the
+ * list from growing when the same segments are added over and over.
+ *
+ * <p>
+ * Not thread safe.
+ */
+public final class PathList {
+    private final char               separator;
+    private final boolean            deduplicate;
+
+    private final LinkedList<String> segments = new LinkedList<String>();
+    /** distinct segments */
+    private final Set<String>        members  = new HashSet<String>();
+
+    private String                   rendered;
+
+    /**
+     * Creates an empty list.
+     */
+    public PathList(char separator, boolean deduplicate) {
+        this.separator = separator;
+        this.deduplicate = deduplicate;
+    }
+
+    /**
+     * Creates an empty list separated by {@link File#pathSeparatorChar}, without deduplication.
+     */
+    public PathList() {
+        this(File.pathSeparatorChar, false);
+    }
+
+    /**
+     * Splits a value into a list. Empty segments are kept, so that the list renders back
+     * to the same value.
+     */
+    public static PathList parse(String value, char separator, boolean deduplicate) {
+        PathList list = new PathList(separator, deduplicate);
+        list.append(value);
+        return list;
+    }
+
+    public char getSeparator() {
+        return separator;
+    }
+
+    public boolean isDeduplicate() {
+        return deduplicate;
+    }
+
+    /**
+     * Adds the segments of the given value in front, keeping their order.
+     *
+     * @return this
+     */
+    public PathList prepend(String value) {
+        List<String> split = split(value);
+        for (int i = split.size() - 1; i >= 0; i--) {
+            String s = split.get(i);
+            if (!members.add(s) && deduplicate)
+                segments.remove(s); // now shadowed by the new first occurrence
+            segments.addFirst(s);
+        }
+        rendered = null;
+        return this;
+    }
+
+    /**
+     * Adds the segments of the given value at the end.
+     *
+     * @return this
+     */
+    public PathList append(String value) {
+        for (String s : split(value)) {
+            if (!members.add(s) && deduplicate)
+                continue; // already in the list, further to the front
+            segments.addLast(s);
+        }
+        rendered = null;
+        return this;
+    }
+
+    /**
+     * Removes all occurrences of the given segment.
+     *
+     * @return true if there was any.
+     */
+    public boolean remove(String segment) {
+        if (!members.remove(segment))
+            return false;
+        while (segments.remove(segment))
+            ;
+        rendered = null;
+        return true;
+    }
+
+    public boolean contains(String segment) {
+        return members.contains(segment);
+    }
+
+    /**
+     * Number of segments.
+     */
+    public int size() {
+        return segments.size();
+    }
+
+    /**
+     * Segments in order.
+     */
+    public List<String> getSegments() {
+        return Collections.unmodifiableList(new ArrayList<String>(segments));
+    }
+
+    /**
+     * Renders the list with its separator.
+     */
+    @Override
+    public String toString() {
+        if (rendered == null)
+            rendered = toString(separator);
+        return rendered;
+    }
+
+    /**
+     * Renders the list with the given separator instead of its own.
+     */
+    public String toString(char separator) {
+        StringBuilder buf = new StringBuilder();
+        boolean first = true;
+        for (String s : segments) {
+            if (!first)
+                buf.append(separator);
+            buf.append(s);
+            first = false;
+        }
+        return buf.toString();
+    }
+
+    private List<String> split(String value) {
+        List<String> r = new ArrayList<String>();
+        int start = 0;
+        for (int i = value.indexOf(separator); i >= 0; i = value.indexOf(separator, start)) {
+            r.add(value.substring(start, i));
+            start = i + 1;
+        }
+        r.add(value.substring(start));
+        return r;
+    }
+}
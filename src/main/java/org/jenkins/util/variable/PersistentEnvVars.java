@@ -0,0 +1,546 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins project contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.util.variable;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable environment variables that share structure between versions.
+ *
+ * <p>
+ * Entries are stored in a hash array mapped trie keyed by the case-folded name, so
+ * {@link #with}, {@link #without} and {@link #override} return a new version in
+ * O(log<sub>32</sub> n) time, copying only the path to the changed entry. Copying a
+ * {@link PersistentEnvVars} is just sharing the reference, and many versions derived
+ * from one base environment only cost memory for their differences.
+ *
+ * <p>
+ * Like {@link EnvVars}, names are case insensitive but case preserving, and iteration
+ * follows {@link CaseInsensitiveComparator} order. Each version also carries the separator
+ * used to join <tt>PATH+XYZ</tt> values and the {@link EnvVars#isEnableEmpty()} setting, which
+ * the versions derived from it keep. As with {@link EnvVars#setPathSeparator(char)}, the
+ * separator isn't serialized.
+ */
+public final class PersistentEnvVars extends AbstractMap<String, String> implements VariableResolver<String>,
+                                                                                  Serializable {
+    private static final long             serialVersionUID = 1L;
+
+    public static final PersistentEnvVars EMPTY            = new PersistentEnvVars(
+                                                               new BitmapNode(0, new Object[0]), 0,
+                                                               File.pathSeparatorChar, false);
+
+    private final BitmapNode              root;
+    private final int                     size;
+    /** separator used to join <tt>PATH+XYZ</tt> values */
+    private final char                    pathSeparator;
+    /** whether {@link #override} keeps empty values */
+    private final boolean                 enableEmpty;
+
+    /** entries in comparator order, computed on demand */
+    private transient volatile Leaf[]     sorted;
+
+    private PersistentEnvVars(BitmapNode root, int size, char pathSeparator, boolean enableEmpty) {
+        this.root = root;
+        this.size = size;
+        this.pathSeparator = pathSeparator;
+        this.enableEmpty = enableEmpty;
+    }
+
+    /**
+     * Returns a persistent copy of the given variables, with the path separator and the
+     * {@link EnvVars#isEnableEmpty()} setting of <tt>m</tt> if it is an {@link EnvVars}.
+     */
+    public static PersistentEnvVars of(Map<String, String> m) {
+        if (m instanceof PersistentEnvVars)
+            return (PersistentEnvVars) m;
+        PersistentEnvVars r = EMPTY;
+        if (m instanceof EnvVars) {
+            EnvVars env = (EnvVars) m;
+            r = r.withPathSeparator(env.getPathSeparator()).withEnableEmpty(env.isEnableEmpty());
+        }
+        for (Map.Entry<String, String> e : m.entrySet())
+            r = r.with(e.getKey(), e.getValue());
+        return r;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public char getPathSeparator() {
+        return pathSeparator;
+    }
+
+    /**
+     * Returns a version with the same entries that joins <tt>PATH+XYZ</tt> values with the given
+     * separator. See {@link EnvVars#setPathSeparator(char)}.
+     */
+    public PersistentEnvVars withPathSeparator(char pathSeparator) {
+        if (pathSeparator == this.pathSeparator)
+            return this;
+        return new PersistentEnvVars(root, size, pathSeparator, enableEmpty);
+    }
+
+    public boolean isEnableEmpty() {
+        return enableEmpty;
+    }
+
+    /**
+     * Returns a version with the same entries whose {@link #override} keeps empty values if
+     * <tt>enableEmpty</tt> is true. See {@link EnvVars#setEnableEmpty(boolean)}.
+     */
+    public PersistentEnvVars withEnableEmpty(boolean enableEmpty) {
+        if (enableEmpty == this.enableEmpty)
+            return this;
+        return new PersistentEnvVars(root, size, pathSeparator, enableEmpty);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    @Override
+    public String get(Object key) {
+        Leaf l = find(key);
+        return l == null ? null : l.value;
+    }
+
+    public String resolve(String name) {
+        return get(name);
+    }
+
+    private Leaf find(Object key) {
+        String folded = CaseInsensitiveHashMap.foldKey(key);
+        if (folded == null)
+            return null;
+        return find(root, folded.hashCode(), folded);
+    }
+
+    /**
+     * Returns a version with the given entry added or replaced.
+     * If an entry that only differs in case exists, its original key is kept.
+     */
+    public PersistentEnvVars with(String key, String value) {
+        if (value == null)
+            throw new IllegalArgumentException("Null value not allowed as an environment variable: "
+                                               + key);
+        String folded = CaseFoldedKey.foldedName(key);
+        int hash = folded.hashCode();
+        Leaf existing = find(root, hash, folded);
+        if (existing != null && existing.value.equals(value))
+            return this;
+        Leaf leaf = new Leaf(existing != null ? existing.key : key, folded, hash, value);
+        return new PersistentEnvVars(insert(root, leaf, 0), existing != null ? size : size + 1, pathSeparator,
+                                     enableEmpty);
+    }
+
+    /**
+     * Returns a version without the given entry.
+     */
+    public PersistentEnvVars without(String key) {
+        String folded = CaseFoldedKey.foldedName(key);
+        int hash = folded.hashCode();
+        if (find(root, hash, folded) == null)
+            return this;
+        BitmapNode r = (BitmapNode) remove(root, hash, folded, 0);
+        return new PersistentEnvVars(r != null ? r : EMPTY.root, size - 1, pathSeparator, enableEmpty);
+    }
+
+    /**
+     * Returns a version with the given entry overridden, handling <tt>PATH+XYZ</tt> notation.
+     * See {@link EnvVars#override(String, String)}.
+     */
+    public PersistentEnvVars override(String key, String value) {
+        if (value == null || (value.length() == 0 && !enableEmpty))
+            return without(key);
+
+        int idx = key.indexOf('+');
+        if (idx > 0) {
+            String realKey = key.substring(0, idx);
+            String v = get(realKey);
+            return with(realKey, v == null ? value : value + pathSeparator + v);
+        }
+        return with(key, value);
+    }
+
+    /**
+     * Returns a version with all values in the map overridden.
+     * See {@link #override(String, String)}.
+     */
+    public PersistentEnvVars overrideAll(Map<String, String> all) {
+        PersistentEnvVars r = this;
+        for (Map.Entry<String, String> e : all.entrySet())
+            r = r.override(e.getKey(), e.getValue());
+        return r;
+    }
+
+    /**
+     * Returns a version with all values in the map overridden, expanding expressions in them.
+     * See {@link EnvVars#overrideExpandingAll(Map)}.
+     */
+    public PersistentEnvVars overrideExpandingAll(Map<String, String> all) {
+        PersistentEnvVars r = this;
+        for (String key : new OverrideOrderCalculator(this, all).getOrderedVariableNames())
+            r = r.override(key, r.expand(all.get(key)));
+        return r;
+    }
+
+    /**
+     * Expands the variables in the given string by using environment variables represented in 'this'.
+     */
+    public String expand(String s) {
+        if (s == null || s.indexOf('$') < 0)
+            return s;
+        return CompiledTemplate.of(s).render((VariableResolver<String>) this);
+    }
+
+    /**
+     * Returns a mutable copy, with the same path separator and {@link #isEnableEmpty()} setting.
+     */
+    public EnvVars toEnvVars() {
+        EnvVars r = new EnvVars(enableEmpty);
+        r.putAll(this);
+        r.setPathSeparator(pathSeparator);
+        return r;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                final Leaf[] s = sortedLeaves();
+                return new Iterator<Map.Entry<String, String>>() {
+                    private int next;
+
+                    public boolean hasNext() {
+                        return next < s.length;
+                    }
+
+                    public Map.Entry<String, String> next() {
+                        if (next >= s.length)
+                            throw new NoSuchElementException();
+                        return s[next++];
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    private Leaf[] sortedLeaves() {
+        Leaf[] s = sorted;
+        if (s == null) {
+            s = new Leaf[size];
+            collect(root, s, 0);
+            Arrays.sort(s, LEAF_ORDER);
+            sorted = s;
+        }
+        return s;
+    }
+
+    private Object writeReplace() {
+        return new SerializedForm(this);
+    }
+
+    /*
+     * Trie operations. A slot holds either a Leaf, a CollisionNode or a nested BitmapNode.
+     */
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & 31);
+    }
+
+    private static int index(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    private static Leaf find(BitmapNode n, int hash, String folded) {
+        int shift = 0;
+        while (true) {
+            int bit = bit(hash, shift);
+            if ((n.bitmap & bit) == 0)
+                return null;
+            Object o = n.slots[index(n.bitmap, bit)];
+            if (o instanceof Leaf) {
+                Leaf l = (Leaf) o;
+                return l.folded.equals(folded) ? l : null;
+            }
+            if (o instanceof CollisionNode)
+                return ((CollisionNode) o).find(folded);
+            n = (BitmapNode) o;
+            shift += 5;
+        }
+    }
+
+    private static BitmapNode insert(BitmapNode n, Leaf leaf, int shift) {
+        int bit = bit(leaf.hash, shift);
+        int idx = index(n.bitmap, bit);
+        if ((n.bitmap & bit) == 0) {
+            Object[] slots = new Object[n.slots.length + 1];
+            System.arraycopy(n.slots, 0, slots, 0, idx);
+            slots[idx] = leaf;
+            System.arraycopy(n.slots, idx, slots, idx + 1, n.slots.length - idx);
+            return new BitmapNode(n.bitmap | bit, slots);
+        }
+
+        Object o = n.slots[idx];
+        Object replacement;
+        if (o instanceof Leaf) {
+            Leaf l = (Leaf) o;
+            if (l.folded.equals(leaf.folded))
+                replacement = leaf;
+            else
+                replacement = merge(l, l.hash, leaf, shift + 5);
+        } else if (o instanceof CollisionNode) {
+            CollisionNode c = (CollisionNode) o;
+            if (c.hash == leaf.hash)
+                replacement = c.with(leaf);
+            else
+                replacement = merge(c, c.hash, leaf, shift + 5);
+        } else {
+            replacement = insert((BitmapNode) o, leaf, shift + 5);
+        }
+        return n.withSlot(idx, replacement);
+    }
+
+    /**
+     * Creates the subtree holding an existing slot and a new leaf with a different name.
+     */
+    private static Object merge(Object existing, int existingHash, Leaf leaf, int shift) {
+        if (existingHash == leaf.hash)
+            return new CollisionNode(leaf.hash, new Leaf[] { (Leaf) existing, leaf });
+
+        int bit1 = bit(existingHash, shift);
+        int bit2 = bit(leaf.hash, shift);
+        if (bit1 == bit2)
+            return new BitmapNode(bit1, new Object[] { merge(existing, existingHash, leaf, shift + 5) });
+        if (((existingHash >>> shift) & 31) < ((leaf.hash >>> shift) & 31))
+            return new BitmapNode(bit1 | bit2, new Object[] { existing, leaf });
+        return new BitmapNode(bit1 | bit2, new Object[] { leaf, existing });
+    }
+
+    /**
+     * @return the new node, or null if it became empty.
+     */
+    private static Object remove(BitmapNode n, int hash, String folded, int shift) {
+        int bit = bit(hash, shift);
+        if ((n.bitmap & bit) == 0)
+            return n;
+        int idx = index(n.bitmap, bit);
+        Object o = n.slots[idx];
+
+        Object replacement;
+        if (o instanceof Leaf) {
+            if (!((Leaf) o).folded.equals(folded))
+                return n;
+            replacement = null;
+        } else if (o instanceof CollisionNode) {
+            replacement = ((CollisionNode) o).without(folded);
+        } else {
+            replacement = remove((BitmapNode) o, hash, folded, shift + 5);
+            if (replacement == o)
+                return n;
+        }
+
+        if (replacement != null)
+            return n.withSlot(idx, replacement);
+        if (n.slots.length == 1)
+            return null;
+        Object[] slots = new Object[n.slots.length - 1];
+        System.arraycopy(n.slots, 0, slots, 0, idx);
+        System.arraycopy(n.slots, idx + 1, slots, idx, slots.length - idx);
+        return new BitmapNode(n.bitmap & ~bit, slots);
+    }
+
+    private static int collect(Object o, Leaf[] out, int pos) {
+        if (o instanceof Leaf) {
+            out[pos++] = (Leaf) o;
+        } else if (o instanceof CollisionNode) {
+            for (Leaf l : ((CollisionNode) o).leaves)
+                out[pos++] = l;
+        } else {
+            for (Object slot : ((BitmapNode) o).slots)
+                pos = collect(slot, out, pos);
+        }
+        return pos;
+    }
+
+    private static final class BitmapNode {
+        final int      bitmap;
+        final Object[] slots;
+
+        BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        BitmapNode withSlot(int idx, Object slot) {
+            Object[] copy = slots.clone();
+            copy[idx] = slot;
+            return new BitmapNode(bitmap, copy);
+        }
+    }
+
+    /**
+     * Names whose folded forms have the same hash.
+     */
+    private static final class CollisionNode {
+        final int    hash;
+        final Leaf[] leaves;
+
+        CollisionNode(int hash, Leaf[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        Leaf find(String folded) {
+            for (Leaf l : leaves) {
+                if (l.folded.equals(folded))
+                    return l;
+            }
+            return null;
+        }
+
+        CollisionNode with(Leaf leaf) {
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].folded.equals(leaf.folded)) {
+                    Leaf[] copy = leaves.clone();
+                    copy[i] = leaf;
+                    return new CollisionNode(hash, copy);
+                }
+            }
+            Leaf[] copy = Arrays.copyOf(leaves, leaves.length + 1);
+            copy[leaves.length] = leaf;
+            return new CollisionNode(hash, copy);
+        }
+
+        /**
+         * @return the remaining slot, which is a single {@link Leaf} once only one name is left.
+         */
+        Object without(String folded) {
+            if (leaves.length == 2)
+                return leaves[0].folded.equals(folded) ? leaves[1] : leaves[0];
+            Leaf[] copy = new Leaf[leaves.length - 1];
+            int j = 0;
+            for (Leaf l : leaves) {
+                if (!l.folded.equals(folded))
+                    copy[j++] = l;
+            }
+            return new CollisionNode(hash, copy);
+        }
+    }
+
+    private static final Comparator<Leaf> LEAF_ORDER = new Comparator<Leaf>() {
+        public int compare(Leaf lhs, Leaf rhs) {
+            return lhs.folded.compareTo(rhs.folded);
+        }
+    };
+
+    private static final class Leaf implements Map.Entry<String, String> {
+        final String key;
+        final String folded;
+        final int    hash;
+        final String value;
+
+        Leaf(String key, String folded, int hash, String value) {
+            this.key = key;
+            this.folded = folded;
+            this.hash = hash;
+            this.value = value;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public String setValue(String value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return key.equals(e.getKey()) && value.equals(e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    private static final class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String[]    keyValuePairs;
+        private final boolean     enableEmpty;
+
+        SerializedForm(PersistentEnvVars env) {
+            enableEmpty = env.enableEmpty;
+            keyValuePairs = new String[env.size * 2];
+            int i = 0;
+            for (Leaf l : env.sortedLeaves()) {
+                keyValuePairs[i++] = l.key;
+                keyValuePairs[i++] = l.value;
+            }
+        }
+
+        private Object readResolve() {
+            PersistentEnvVars r = EMPTY.withEnableEmpty(enableEmpty);
+            for (int i = 0; i < keyValuePairs.length; i += 2)
+                r = r.with(keyValuePairs[i], keyValuePairs[i + 1]);
+            return r;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2026, Jenkins project contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkins.util.variable;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Overrides applied to an {@link EnvVars} with {@link EnvVars#overrideExpandingAllReactive(Map)},
+ * which remembers what each expanded value was computed from.
+ *
+ * <p>
+ * When a variable of the environment or an override changes, only the overrides that depend
+ * on it (see {@link OverrideDependencyGraph}) are expanded again, with the same values they
+ * would have seen if {@link EnvVars#overrideExpandingAll(Map)} had been run from scratch:
+ * overrides placed before them, and the original values of the other overridden variables.
+ *
+ * <p>
+ * The environment must only be changed through this object for as long as it is used.
+ * Not thread safe.
+ */
+public final class ReactiveOverrides {
+    private final EnvVars                     env;
+    private final OverrideDependencyGraph     graph;
+
+    /** values of the overridden and extended variables before any override was applied; null if absent */
+    private final Map<CaseFoldedKey, String>  base      = new HashMap<CaseFoldedKey, String>();
+    /** expanded values of the overrides, except XYZ+AAA ones; null if removed */
+    private final Map<CaseFoldedKey, String>  expanded  = new HashMap<CaseFoldedKey, String>();
+    /** variables currently extended by XYZ+AAA overrides */
+    private Set<CaseFoldedKey>                extended  = Collections.emptySet();
+
+    ReactiveOverrides(EnvVars env, Map<String, String> overrides) {
+        this.env = env;
+        for (String name : overrides.keySet())
+            remember(realKeyOf(name));
+        // cyclic references are cut depending on which variables exist before any override
+        this.graph = new OverrideDependencyGraph(new Original(), overrides);
+        refresh(graph.getOrderedVariableNames(), true, Collections.<String> emptySet());
+    }
+
+    /**
+     * Changes a variable of the environment, and expands again the overrides that depend on it.
+     * If the variable is overridden, the value is the one the override sees as its original value.
+     *
+     * @param value
+     *      new value, or null to remove the variable.
+     * @return
+     *      names of the variables whose value in the environment actually changed.
+     */
+    public Set<String> set(String name, String value) {
+        return setAll(Collections.singletonMap(name, value));
+    }
+
+    /**
+     * Changes several variables of the environment at once. See {@link #set(String, String)}.
+     */
+    public Set<String> setAll(Map<String, String> values) {
+        Set<String> changed = new LinkedHashSet<String>();
+        boolean recalculate = false;
+        for (Map.Entry<String, String> e : values.entrySet()) {
+            CaseFoldedKey key = CaseFoldedKey.of(e.getKey());
+            if (base.containsKey(key)) {
+                String old = base.put(key, e.getValue());
+                // which cyclic references are cut depends on the overridden variables that exist
+                recalculate |= (old == null) != (e.getValue() == null) && graph.positionOf(key) != null;
+            } else {
+                write(e.getKey(), e.getValue(), changed);
+            }
+        }
+        List<String> dirty = recalculate && graph.hasCutReferences() ? graph.recalculate()
+            : graph.getDependents(values.keySet());
+        changed.addAll(refresh(dirty, false, values.keySet()));
+        return changed;
+    }
+
+    /**
+     * Adds, changes and removes overrides, and expands again the overrides that depend on them.
+     *
+     * @param removed
+     *      names of the overrides to remove; the variables they overrode get their original value back.
+     * @return
+     *      names of the variables whose value in the environment actually changed.
+     */
+    public Set<String> update(Map<String, String> changedOverrides, Collection<String> removed) {
+        for (String name : changedOverrides.keySet())
+            remember(realKeyOf(name));
+        List<String> dirty = graph.update(changedOverrides, removed);
+
+        Set<String> changed = new LinkedHashSet<String>();
+        boolean extensionsChanged = false;
+        for (String name : removed) {
+            if (name.indexOf('+') > 0) {
+                extensionsChanged = true;
+                continue;
+            }
+            CaseFoldedKey key = CaseFoldedKey.of(name);
+            if (graph.positionOf(key) != null || !expanded.containsKey(key))
+                continue;
+            expanded.remove(key);
+            if (!extended.contains(key))
+                write(name, base.remove(key), changed);
+        }
+        for (String name : changedOverrides.keySet())
+            extensionsChanged |= name.indexOf('+') > 0;
+
+        changed.addAll(refresh(dirty, extensionsChanged, dirty));
+        return changed;
+    }
+
+    /**
+     * Current value of an override before expansion, or null.
+     */
+    public String getOverride(String name) {
+        return graph.getValue(name);
+    }
+
+    /**
+     * Expands the given overrides again, in the given order, then the <tt>XYZ+AAA</tt> overrides
+     * if needed.
+     *
+     * @param sources
+     *      variables that changed, in addition to the expanded overrides.
+     */
+    private Set<String> refresh(List<String> dirty, boolean extensionsChanged, Collection<String> sources) {
+        Set<String> changed = new LinkedHashSet<String>();
+        Set<CaseFoldedKey> touched = new HashSet<CaseFoldedKey>();
+        for (String name : sources)
+            touched.add(CaseFoldedKey.of(name));
+
+        for (String name : dirty) {
+            CaseFoldedKey key = CaseFoldedKey.of(name);
+            Integer position = graph.positionOf(key);
+            if (position == null)
+                continue;
+            String value = expand(graph.getValue(name), new Before(position));
+            if (value != null && value.length() == 0 && !env.isEnableEmpty())
+                value = null;
+            expanded.put(key, value);
+            touched.add(key);
+            if (!extended.contains(key))
+                write(name, value, changed);
+        }
+
+        if (extensionsChanged || needsExtensions(touched))
+            applyExtensions(changed);
+        return changed;
+    }
+
+    /**
+     * True if an <tt>XYZ+AAA</tt> override may give a different result after the given
+     * variables changed.
+     */
+    private boolean needsExtensions(Set<CaseFoldedKey> touched) {
+        for (CaseFoldedKey key : extended) {
+            if (touched.contains(key))
+                return true;
+        }
+        for (String name : graph.getExtensionNames()) {
+            for (String ref : Util.extractReferences(graph.getValue(name))) {
+                if (touched.contains(CaseFoldedKey.of(ref)))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Applies all the <tt>XYZ+AAA</tt> overrides again, starting from the values the variables
+     * they extend had before them, the way {@link EnvVars#override(String, String)} does.
+     */
+    private void applyExtensions(Set<String> changed) {
+        final Map<CaseFoldedKey, String> values = new LinkedHashMap<CaseFoldedKey, String>();
+        List<String> extensions = graph.getExtensionNames();
+        for (String name : extensions)
+            values.put(realKeyOf(name), null);
+        Set<CaseFoldedKey> current = new HashSet<CaseFoldedKey>(values.keySet());
+        for (CaseFoldedKey key : extended) {
+            if (!values.containsKey(key))
+                values.put(key, null);
+        }
+        for (Map.Entry<CaseFoldedKey, String> e : values.entrySet()) {
+            CaseFoldedKey key = e.getKey();
+            e.setValue(graph.positionOf(key) != null ? expanded.get(key) : base.get(key));
+        }
+
+        VariableResolver<String> resolver = new VariableResolver<String>() {
+            public String resolve(String name) {
+                CaseFoldedKey key = CaseFoldedKey.of(name);
+                return values.containsKey(key) ? values.get(key) : env.get(name);
+            }
+        };
+        char ch = env.getPathSeparator();
+        for (String name : extensions) {
+            String value = expand(graph.getValue(name), resolver);
+            if (value == null || (value.length() == 0 && !env.isEnableEmpty()))
+                continue;
+            CaseFoldedKey key = realKeyOf(name);
+            String v = values.get(key);
+            values.put(key, v == null ? value : value + ch + v);
+        }
+
+        for (Map.Entry<CaseFoldedKey, String> e : values.entrySet()) {
+            CaseFoldedKey key = e.getKey();
+            write(key.getName(), e.getValue(), changed);
+            if (!current.contains(key) && graph.positionOf(key) == null)
+                base.remove(key);
+        }
+        extended = current;
+    }
+
+    private void remember(CaseFoldedKey key) {
+        if (!base.containsKey(key))
+            base.put(key, env.get(key.getName()));
+    }
+
+    private void write(String name, String value, Set<String> changed) {
+        String old = value == null ? env.remove(name) : env.put(name, value);
+        if (value == null ? old != null : !value.equals(old))
+            changed.add(name);
+    }
+
+    private static String expand(String s, VariableResolver<String> resolver) {
+        if (s == null || s.indexOf('$') < 0)
+            return s;
+        return CompiledTemplate.of(s).render(resolver);
+    }
+
+    private static CaseFoldedKey realKeyOf(String name) {
+        int idx = name.indexOf('+');
+        return CaseFoldedKey.of(idx > 0 ? name.substring(0, idx) : name);
+    }
+
+    /**
+     * Variables as seen by the override at the given position when the overrides are applied
+     * in order: overrides placed before it, and the original values of the other overridden
+     * and extended variables.
+     */
+    private final class Before implements VariableResolver<String> {
+        private final int position;
+
+        Before(int position) {
+            this.position = position;
+        }
+
+        public String resolve(String name) {
+            CaseFoldedKey key = CaseFoldedKey.of(name);
+            Integer p = graph.positionOf(key);
+            if (p != null)
+                return p < position ? expanded.get(key) : base.get(key);
+            if (base.containsKey(key))
+                return base.get(key);
+            return env.get(name);
+        }
+    }
+
+    /**
+     * The environment as it was before the overrides were applied, for the graph to cut cyclic
+     * references the way a full calculation would. Only supports lookups.
+     */
+    private final class Original extends AbstractMap<String, String> {
+        @Override
+        public String get(Object name) {
+            CaseFoldedKey key = CaseFoldedKey.of((String) name);
+            return base.containsKey(key) ? base.get(key) : env.get(name);
+        }
+
+        @Override
+        public boolean containsKey(Object name) {
+            return get(name) != null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
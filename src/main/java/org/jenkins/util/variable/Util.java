@@ -23,12 +23,13 @@
  */
 package org.jenkins.util.variable;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Various utility methods that don't have more proper home.
@@ -64,12 +65,6 @@ public class Util {
         return r;
     }
 
-    /**
-     * Pattern for capturing variables. Either $xyz, ${xyz} or ${a.b} but not $a.b, while ignoring "$$"
-      */
-    private static final Pattern VARIABLE = Pattern
-                                              .compile("\\$([A-Za-z0-9_]+|\\{[A-Za-z0-9_.]+\\}|\\$)");
-
     /**
      * Replaces the occurrence of '$key' by <tt>properties.get('key')</tt>.
      *
@@ -86,36 +81,228 @@ public class Util {
      *
      * <p>
      * Unlike shell, undefined variables are left as-is (this behavior is the same as Ant.)
+     *
+     * <p>
+     * The input is scanned once and the result is built in a single buffer, so the cost
+     * is linear in the length of the input plus the length of the substituted values.
+     * If nothing is substituted, <tt>s</tt> itself is returned.
      */
     public static String replaceMacro(String s, VariableResolver<String> resolver) {
         if (s == null) {
             return null;
         }
 
-        int idx = 0;
-        while (true) {
-            Matcher m = VARIABLE.matcher(s);
-            if (!m.find(idx))
-                return s;
+        int len = s.length();
+        int idx = s.indexOf('$');
+        if (idx < 0)
+            return s;
 
-            String key = m.group().substring(1);
+        StringBuilder buf = null;
+        int copied = 0;
+        while (idx >= 0) {
+            int end = scanMacro(s, idx, len, true);
+            if (end < 0) {
+                idx = s.indexOf('$', idx + 1);
+                continue;
+            }
 
             // escape the dollar sign or get the key to resolve
             String value;
-            if (key.charAt(0) == '$') {
+            if (s.charAt(idx + 1) == '$')
                 value = "$";
-            } else {
-                if (key.charAt(0) == '{')
-                    key = key.substring(1, key.length() - 1);
-                value = resolver.resolve(key);
+            else
+                value = resolver.resolve(macroName(s, idx, end));
+
+            if (value != null) {
+                if (buf == null)
+                    buf = new StringBuilder(len + 16);
+                buf.append(s, copied, idx).append(value);
+                copied = end;
             }
+            // otherwise skip this
+            idx = s.indexOf('$', end);
+        }
+
+        if (buf == null)
+            return s;
+        buf.append(s, copied, len);
+        return buf.toString();
+    }
+
+    /**
+     * Lists the names of the variables referred from the given string, in order of
+     * appearance and including duplicates, the same way {@link #replaceMacro(String, VariableResolver)}
+     * would ask for them, but without building the expanded string.
+     */
+    public static List<String> extractReferences(String s) {
+        List<String> names = new ArrayList<String>();
+        extractReferences(s, names);
+        return names;
+    }
 
-            if (value == null)
-                idx = m.end(); // skip this
-            else {
-                s = s.substring(0, m.start()) + value + s.substring(m.end());
-                idx = m.start() + value.length();
+    /**
+     * Adds the names of the variables referred from the given string to <tt>names</tt>.
+     * See {@link #extractReferences(String)}. Nothing is allocated apart from the names.
+     */
+    public static void extractReferences(String s, Collection<? super String> names) {
+        if (s == null)
+            return;
+        int len = s.length();
+        int idx = s.indexOf('$');
+        while (idx >= 0) {
+            int end = scanMacro(s, idx, len, true);
+            if (end < 0) {
+                idx = s.indexOf('$', idx + 1);
+                continue;
             }
+            if (s.charAt(idx + 1) != '$')
+                names.add(macroName(s, idx, end));
+            idx = s.indexOf('$', end);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Size of the buffer used by {@link #replaceMacro(Reader, Appendable, VariableResolver)}.
+     */
+    private static final int STREAM_BUFFER_SIZE = 8192;
+
+    /**
+     * Replaces the occurrence of '$key' by <tt>resolver.get('key')</tt> while copying
+     * <tt>in</tt> to <tt>out</tt>.
+     *
+     * <p>
+     * The input is read through a fixed size buffer, so the memory used doesn't depend on the
+     * length of the input but only on the longest variable reference in it. References that
+     * span buffer boundaries are handled the same as in {@link #replaceMacro(String, VariableResolver)}.
+     * Neither stream is closed.
+     */
+    public static void replaceMacro(Reader in, Appendable out, VariableResolver<String> resolver)
+            throws IOException {
+        char[] buf = new char[STREAM_BUFFER_SIZE];
+        CharBuffer seq = CharBuffer.wrap(buf);
+        int len = 0;
+        boolean eof = false;
+
+        while (!eof) {
+            int n = in.read(buf, len, buf.length - len);
+            if (n < 0)
+                eof = true;
+            else
+                len += n;
+
+            int copied = 0;
+            int idx = indexOf(buf, '$', 0, len);
+            while (idx >= 0) {
+                int end = scanMacro(seq, idx, len, eof);
+                if (end == NEED_MORE)
+                    break;
+                if (end == NO_MACRO) {
+                    idx = indexOf(buf, '$', idx + 1, len);
+                    continue;
+                }
+
+                String value;
+                if (buf[idx + 1] == '$')
+                    value = "$";
+                else
+                    value = resolver.resolve(macroName(seq, idx, end));
+
+                if (value != null) {
+                    out.append(seq, copied, idx).append(value);
+                    copied = end;
+                }
+                idx = indexOf(buf, '$', end, len);
+            }
+
+            if (idx < 0) {
+                // nothing pending, flush everything
+                out.append(seq, copied, len);
+                len = 0;
+            } else {
+                // keep the incomplete reference for the next round
+                out.append(seq, copied, idx);
+                len -= idx;
+                System.arraycopy(buf, idx, buf, 0, len);
+                if (len == buf.length) {
+                    // a single reference longer than the buffer
+                    char[] larger = new char[buf.length * 2];
+                    System.arraycopy(buf, 0, larger, 0, len);
+                    buf = larger;
+                    seq = CharBuffer.wrap(buf);
+                }
+            }
+        }
+    }
+
+    private static int indexOf(char[] buf, char ch, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == ch)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returned by {@link #scanMacro} when there is no variable reference at the given position.
+     */
+    static final int NO_MACRO  = -1;
+
+    /**
+     * Returned by {@link #scanMacro} when the reference may continue past the end of the input.
+     */
+    static final int NEED_MORE = -2;
+
+    /**
+     * Scans a variable reference starting at the '$' at <tt>start</tt>.
+     * Either $xyz, ${xyz} or ${a.b} but not $a.b, while ignoring "$$".
+     *
+     * @param eof
+     *      true if there is no more input after <tt>end</tt>.
+     * @return
+     *      the index just after the reference, {@link #NO_MACRO}, or {@link #NEED_MORE}
+     *      if <tt>eof</tt> is false and the reference can't be decided yet.
+     */
+    static int scanMacro(CharSequence s, int start, int end, boolean eof) {
+        int i = start + 1;
+        if (i >= end)
+            return eof ? NO_MACRO : NEED_MORE;
+
+        char ch = s.charAt(i);
+        if (ch == '$')
+            return i + 1;
+
+        if (ch == '{') {
+            i++;
+            while (i < end && isMacroChar(s.charAt(i), true))
+                i++;
+            if (i >= end)
+                return eof ? NO_MACRO : NEED_MORE;
+            if (s.charAt(i) != '}' || i == start + 2)
+                return NO_MACRO;
+            return i + 1;
+        }
+
+        while (i < end && isMacroChar(s.charAt(i), false))
+            i++;
+        if (i == start + 1)
+            return NO_MACRO;
+        if (i >= end && !eof)
+            return NEED_MORE;
+        return i;
+    }
+
+    /**
+     * Returns the variable name of the reference found by {@link #scanMacro}.
+     * Must not be called for "$$".
+     */
+    static String macroName(CharSequence s, int start, int end) {
+        if (s.charAt(start + 1) == '{')
+            return s.subSequence(start + 2, end - 1).toString();
+        return s.subSequence(start + 1, end).toString();
+    }
+
+    private static boolean isMacroChar(char ch, boolean braced) {
+        return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9')
+               || ch == '_' || (braced && ch == '.');
+    }
+}
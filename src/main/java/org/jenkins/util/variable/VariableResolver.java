@@ -1,7 +1,10 @@
 package org.jenkins.util.variable;
 
+import java.io.Closeable;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Resolves variables to its value, while encapsulating
@@ -54,25 +57,223 @@ public interface VariableResolver<V> {
 
     /**
      * Union of multiple {@link VariableResolver}.
+     *
+     * <p>
+     * A union created by {@link #withFilters()} skips {@link ByMap} resolvers over an
+     * {@link EnvVars} whose map can't contain the name being resolved, which saves asking
+     * every resolver when most names are only found in the last ones.
      */
     final class Union<V> implements VariableResolver<V> {
         private final VariableResolver<? extends V>[] resolvers;
+        /** per resolver, null if it is always asked */
+        private final Filter[]                        filters;
+        /** null unless statistics are kept */
+        private final AtomicLongArray                 skipped;
+        private final AtomicLongArray                 falsePositives;
 
         public Union(VariableResolver<? extends V>... resolvers) {
             this.resolvers = resolvers.clone();
+            this.filters = null;
+            this.skipped = this.falsePositives = null;
         }
 
         public Union(Collection<? extends VariableResolver<? extends V>> resolvers) {
             this.resolvers = resolvers.toArray(new VariableResolver[resolvers.size()]);
+            this.filters = null;
+            this.skipped = this.falsePositives = null;
+        }
+
+        private Union(VariableResolver<? extends V>[] resolvers, Filter[] filters, boolean keepStatistics) {
+            this.resolvers = resolvers;
+            this.filters = filters;
+            this.skipped = keepStatistics ? new AtomicLongArray(resolvers.length) : null;
+            this.falsePositives = keepStatistics ? new AtomicLongArray(resolvers.length) : null;
+        }
+
+        /**
+         * Returns a union of the same resolvers that keeps a {@link NameFilter} for each
+         * {@link ByMap} resolver over an {@link EnvVars}, built from the keys of its map.
+         * A filter is built again on the first lookup after entries were added to or
+         * removed from its map. Other resolvers are always asked, as changes to their maps
+         * can't be told.
+         */
+        public Union<V> withFilters() {
+            return withFilters(false);
+        }
+
+        /**
+         * Same as {@link #withFilters()}, and if <tt>keepStatistics</tt> is true, also counts
+         * how often each filter skipped its resolver or failed to; see {@link #getSkipCount(int)}.
+         */
+        public Union<V> withFilters(boolean keepStatistics) {
+            Filter[] f = new Filter[resolvers.length];
+            for (int i = 0; i < resolvers.length; i++) {
+                if (resolvers[i] instanceof ByMap && ((ByMap<?>) resolvers[i]).data instanceof CaseInsensitiveHashMap)
+                    f[i] = new Filter((CaseInsensitiveHashMap<?>) ((ByMap<?>) resolvers[i]).data);
+            }
+            return new Union<V>(resolvers, f, keepStatistics);
         }
 
         public V resolve(String name) {
-            for (VariableResolver<? extends V> r : resolvers) {
-                V v = r.resolve(name);
+            for (int i = 0; i < resolvers.length; i++) {
+                Filter f = filters == null ? null : filters[i];
+                if (f != null && !f.mightContain(name)) {
+                    if (skipped != null)
+                        skipped.incrementAndGet(i);
+                    continue;
+                }
+                V v = resolvers[i].resolve(name);
                 if (v != null)
                     return v;
+                if (f != null && falsePositives != null)
+                    falsePositives.incrementAndGet(i);
             }
             return null;
         }
+
+        /**
+         * Number of lookups the resolver at the given position was skipped for,
+         * or 0 if no statistics are kept.
+         */
+        public long getSkipCount(int i) {
+            return skipped == null ? 0 : skipped.get(i);
+        }
+
+        /**
+         * Number of lookups the filter of the resolver at the given position let through
+         * although the resolver didn't have the name, or 0 if no statistics are kept.
+         */
+        public long getFalsePositiveCount(int i) {
+            return falsePositives == null ? 0 : falsePositives.get(i);
+        }
+
+        /**
+         * Fraction of the lookups of names missing from the resolver at the given position
+         * that its filter failed to skip, or 0 if there was none.
+         */
+        public double getFalsePositiveRate(int i) {
+            long fp = getFalsePositiveCount(i);
+            long negatives = fp + getSkipCount(i);
+            return negatives == 0 ? 0 : (double) fp / negatives;
+        }
+
+        /**
+         * {@link NameFilter} over the keys of a map, built again when they change.
+         */
+        private static final class Filter {
+            private final CaseInsensitiveHashMap<?> map;
+            private volatile Built                  built;
+
+            Filter(CaseInsensitiveHashMap<?> map) {
+                this.map = map;
+            }
+
+            boolean mightContain(String name) {
+                Built b = built;
+                int version = map.keysVersion();
+                if (b == null || b.version != version) {
+                    b = new Built(NameFilter.of(map.keySet()), version);
+                    built = b;
+                }
+                return b.filter.mightContain(name);
+            }
+        }
+
+        private static final class Built {
+            final NameFilter filter;
+            final int        version;
+
+            Built(NameFilter filter, int version) {
+                this.filter = filter;
+                this.version = version;
+            }
+        }
+    }
+
+    /**
+     * Remembers what another {@link VariableResolver} returned for each name,
+     * including names it couldn't resolve, so that expensive resolvers are asked
+     * at most once per name.
+     *
+     * <p>
+     * Meant to live as long as one batch of expansions: create one, use it for the batch
+     * and {@link #close()} it, or {@link #invalidate(String)} names that are known to change.
+     * Not thread safe.
+     */
+    final class Memoizing<V> implements VariableResolver<V>, Closeable {
+        /** Marks a name the underlying resolver returned null for. */
+        private static final Object                 UNRESOLVED = new Object();
+
+        private final VariableResolver<? extends V> resolver;
+        private final Map<String, Object>           cache      = new HashMap<String, Object>();
+        private long                                hits;
+        private long                                misses;
+
+        public Memoizing(VariableResolver<? extends V> resolver) {
+            this.resolver = resolver;
+        }
+
+        public V resolve(String name) {
+            Object v = cache.get(name);
+            if (v != null) {
+                hits++;
+                return v == UNRESOLVED ? null : (V) v;
+            }
+            misses++;
+            V r = resolver.resolve(name);
+            cache.put(name, r == null ? UNRESOLVED : r);
+            return r;
+        }
+
+        /**
+         * Forgets the given name, so that the next lookup asks the underlying resolver again.
+         */
+        public void invalidate(String name) {
+            cache.remove(name);
+        }
+
+        /**
+         * Forgets all names.
+         */
+        public void invalidateAll() {
+            cache.clear();
+        }
+
+        /**
+         * Ends the scope of this resolver and releases what it remembered.
+         * It can still be used afterwards, starting over with an empty cache.
+         */
+        public void close() {
+            invalidateAll();
+        }
+
+        /**
+         * Number of lookups answered from the cache.
+         */
+        public long getHitCount() {
+            return hits;
+        }
+
+        /**
+         * Number of lookups passed to the underlying resolver.
+         */
+        public long getMissCount() {
+            return misses;
+        }
+
+        /**
+         * Fraction of lookups answered from the cache, or 0 if there was none.
+         */
+        public double getHitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        /**
+         * Clears the hit and miss counts.
+         */
+        public void resetStatistics() {
+            hits = misses = 0;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,140 @@
+package org.jenkins.util.variable.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.jenkins.util.variable.CaseInsensitiveComparator;
+import org.jenkins.util.variable.EnvVars;
+import org.junit.Test;
+
+public class CaseInsensitiveHashMapTest {
+    private static final String[] NAMES = { "a", "A", "ab", "aB", "B", "b_", "c", "C1", "path", "PATH", "z" };
+
+    private static String name(Random random) {
+        return NAMES[random.nextInt(NAMES.length)];
+    }
+
+    @Test
+    public void navigation() {
+        EnvVars ev = new EnvVars("b", "2", "A", "1", "c", "3", "Path", "p");
+        assertEquals("b", ev.ceilingKey("B"));
+        assertEquals("c", ev.higherKey("b"));
+        assertEquals("A", ev.lowerKey("b"));
+        assertEquals("Path", ev.floorKey("q"));
+        assertNull(ev.lowerKey("a"));
+        assertEquals(Arrays.asList("Path", "c", "b", "A"), new ArrayList<String>(ev.descendingMap().keySet()));
+        assertEquals(Arrays.asList("A", "b"), new ArrayList<String>(ev.headMap("B", true).keySet()));
+        assertEquals(Arrays.asList("Path", "c", "b"), new ArrayList<String>(ev.descendingMap().headMap("B", true).keySet()));
+
+        Map.Entry<String, String> first = ev.pollFirstEntry();
+        assertEquals("A", first.getKey());
+        assertEquals("1", first.getValue());
+        assertNull(ev.get("a"));
+        try {
+            first.setValue("x");
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+
+        try {
+            ev.headMap("c").put("d", "4");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            ev.subMap("c", "b");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void navigationMatchesTreeMap() {
+        Random random = new Random(42);
+        for (int round = 0; round < 300; round++) {
+            EnvVars ev = new EnvVars();
+            TreeMap<String, String> expected = new TreeMap<String, String>(CaseInsensitiveComparator.INSTANCE);
+            for (int i = random.nextInt(NAMES.length); i > 0; i--) {
+                String name = name(random);
+                ev.put(name, name + i);
+                expected.put(name, name + i);
+            }
+
+            NavigableMap<String, String> actualView = ev;
+            NavigableMap<String, String> expectedView = expected;
+            for (int depth = 0; depth < 3; depth++) {
+                String k = name(random);
+                assertEquals(k, expectedView.lowerKey(k), actualView.lowerKey(k));
+                assertEquals(k, expectedView.floorKey(k), actualView.floorKey(k));
+                assertEquals(k, expectedView.ceilingKey(k), actualView.ceilingKey(k));
+                assertEquals(k, expectedView.higherKey(k), actualView.higherKey(k));
+                assertEquals(expectedView.firstEntry(), actualView.firstEntry());
+                assertEquals(expectedView.lastEntry(), actualView.lastEntry());
+                assertEquals(keys(expectedView), keys(actualView));
+                assertEquals(new ArrayList<String>(expectedView.descendingKeySet()),
+                    new ArrayList<String>(actualView.descendingKeySet()));
+                assertEquals(expectedView.size(), actualView.size());
+
+                boolean inclusive = random.nextBoolean();
+                switch (random.nextInt(4)) {
+                case 0:
+                    expectedView = expectedView.descendingMap();
+                    actualView = actualView.descendingMap();
+                    break;
+                case 1:
+                    if (!inRange(expectedView, k, inclusive))
+                        continue;
+                    expectedView = expectedView.headMap(k, inclusive);
+                    actualView = actualView.headMap(k, inclusive);
+                    break;
+                case 2:
+                    if (!inRange(expectedView, k, inclusive))
+                        continue;
+                    expectedView = expectedView.tailMap(k, inclusive);
+                    actualView = actualView.tailMap(k, inclusive);
+                    break;
+                default:
+                    String l = name(random);
+                    try {
+                        expectedView = expectedView.subMap(k, inclusive, l, !inclusive);
+                    } catch (IllegalArgumentException e) {
+                        try {
+                            actualView.subMap(k, inclusive, l, !inclusive);
+                            fail(k + " " + l);
+                        } catch (IllegalArgumentException expectedToo) {
+                        }
+                        continue;
+                    }
+                    actualView = actualView.subMap(k, inclusive, l, !inclusive);
+                }
+            }
+
+            assertEquals(expectedView.pollFirstEntry(), actualView.pollFirstEntry());
+            assertEquals(expectedView.pollLastEntry(), actualView.pollLastEntry());
+            assertEquals(keys(expected), keys(ev));
+        }
+    }
+
+    private static boolean inRange(NavigableMap<String, String> view, String key, boolean inclusive) {
+        try {
+            view.headMap(key, inclusive);
+            view.tailMap(key, inclusive);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static List<String> keys(Map<String, String> m) {
+        return new ArrayList<String>(m.keySet());
+    }
+}
@@ -0,0 +1,112 @@
+package org.jenkins.util.variable.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jenkins.util.variable.ConcurrentEnvVars;
+import org.jenkins.util.variable.EnvVars;
+import org.jenkins.util.variable.PersistentEnvVars;
+import org.junit.Test;
+
+public class ConcurrentEnvVarsTest {
+    @Test
+    public void conditionalUpdates() {
+        ConcurrentEnvVars env = new ConcurrentEnvVars(new EnvVars("Path", "/bin"));
+        assertEquals("/bin", env.get("PATH"));
+        assertEquals(null, env.putIfAbsent("c", "1"));
+        assertEquals("1", env.putIfAbsent("C", "2"));
+        assertTrue(env.replace("C", "1", "3"));
+        assertFalse(env.remove("c", "1"));
+        assertTrue(env.remove("c", "3"));
+    }
+
+    @Test
+    public void override() {
+        ConcurrentEnvVars env = new ConcurrentEnvVars(new EnvVars("Path", "/bin"));
+        env.override("PATH+JDK", "/jdk");
+        assertEquals("/jdk" + File.pathSeparatorChar + "/bin", env.get("path"));
+    }
+
+    @Test
+    public void enableEmpty() {
+        EnvVars expected = new EnvVars(true);
+        expected.put("X", "x");
+        ConcurrentEnvVars env = new ConcurrentEnvVars(expected);
+        assertTrue(env.isEnableEmpty());
+        env.override("X", "");
+        env.override("PATH+EMPTY", "");
+        expected.override("X", "");
+        expected.override("PATH+EMPTY", "");
+        assertEquals(expected, env);
+        assertEquals("", env.get("X"));
+        assertTrue(env.toEnvVars().isEnableEmpty());
+
+        env.clear();
+        assertTrue(env.isEnableEmpty());
+        env.setEnableEmpty(false);
+        env.put("X", "x");
+        env.override("X", "");
+        assertFalse(env.containsKey("X"));
+    }
+
+    @Test
+    public void snapshot() {
+        ConcurrentEnvVars env = new ConcurrentEnvVars(new EnvVars("A", "1"));
+        PersistentEnvVars before = env.snapshot();
+        env.put("B", "2");
+        env.remove("a");
+        assertEquals(new EnvVars("A", "1"), before);
+        assertEquals(new EnvVars("B", "2"), env.toEnvVars());
+    }
+
+    @Test
+    public void atomicBatches() throws Exception {
+        final ConcurrentEnvVars env = new ConcurrentEnvVars(new EnvVars("A", "0", "B", "0"));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < 3; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() {
+                        for (int i = 0; i < 1000; i++) {
+                            env.put("T" + thread + "_" + i, "v");
+                            // A and B always change together
+                            Map<String, String> both = new TreeMap<String, String>();
+                            both.put("A", thread + "." + i);
+                            both.put("B", thread + "." + i);
+                            env.overrideAll(both);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            futures.add(executor.submit(new Callable<Void>() {
+                public Void call() {
+                    for (int i = 0; i < 10000; i++) {
+                        String[] ab = env.expand("${A}/${B}").split("/");
+                        assertEquals(ab[0], ab[1]);
+                    }
+                    return null;
+                }
+            }));
+            for (Future<?> f : futures)
+                f.get();
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(2 + 3000, env.size());
+        assertEquals(env.get("A"), env.get("B"));
+    }
+}
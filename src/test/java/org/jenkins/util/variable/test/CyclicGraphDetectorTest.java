@@ -0,0 +1,77 @@
+package org.jenkins.util.variable.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jenkins.util.variable.CyclicGraphDetector;
+import org.jenkins.util.variable.CyclicGraphDetector.CycleDetectedException;
+import org.junit.Test;
+
+public class CyclicGraphDetectorTest {
+
+    private static class Graph extends CyclicGraphDetector<String> {
+        private final Map<String, List<String>> edges = new HashMap<String, List<String>>();
+
+        Graph edge(String from, String... to) {
+            edges.put(from, Arrays.asList(to));
+            return this;
+        }
+
+        @Override
+        protected Iterable<? extends String> getEdges(String n) {
+            List<String> e = edges.get(n);
+            return e != null ? e : Collections.<String> emptyList();
+        }
+    }
+
+    @Test
+    public void sorted() throws Exception {
+        Graph g = new Graph().edge("A", "B", "C").edge("B", "C");
+        g.run(Arrays.asList("A", "B", "C"));
+        assertEquals(Arrays.asList("C", "B", "A"), g.getSorted());
+    }
+
+    @Test
+    public void cycle() {
+        Graph g = new Graph().edge("A", "B").edge("B", "C").edge("C", "D", "B");
+        try {
+            g.run(Arrays.asList("A"));
+            fail();
+        } catch (CycleDetectedException e) {
+            assertEquals(Arrays.asList("B", "C", "B"), e.cycle);
+        }
+    }
+
+    @Test
+    public void longChainOnSmallStack() throws Exception {
+        final int length = 1000000;
+        final Throwable[] failure = new Throwable[1];
+        Thread t = new Thread(null, new Runnable() {
+            public void run() {
+                CyclicGraphDetector<Integer> g = new CyclicGraphDetector<Integer>() {
+                    @Override
+                    protected Iterable<? extends Integer> getEdges(Integer n) {
+                        return n + 1 < length ? Collections.singleton(n + 1) : Collections.<Integer> emptySet();
+                    }
+                };
+                try {
+                    g.run(Collections.singleton(0));
+                    assertEquals(length, g.getSorted().size());
+                    assertEquals(Integer.valueOf(length - 1), g.getSorted().get(0));
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        }, "small-stack", 256 * 1024);
+        t.start();
+        t.join();
+        assertNull(failure[0]);
+    }
+}
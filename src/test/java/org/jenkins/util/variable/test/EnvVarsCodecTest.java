@@ -0,0 +1,136 @@
+package org.jenkins.util.variable.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+import org.jenkins.util.variable.EnvVars;
+import org.jenkins.util.variable.EnvVarsCodec;
+import org.junit.Test;
+
+public class EnvVarsCodecTest {
+    @Test
+    public void roundTrip() {
+        EnvVars env = new EnvVars(true);
+        env.put("Path", "/usr/bin");
+        env.put("EMPTY", "");
+        env.put("\u00e9t\u00e9", "\u65e5\u672c \ud83d\ude00");
+        for (int flags : new int[] { 0, EnvVarsCodec.PREFIX_COMPRESSION }) {
+            EnvVars copy = EnvVarsCodec.decode(EnvVarsCodec.encode(env, flags));
+            assertEquals(env, copy);
+            assertTrue(copy.isEnableEmpty());
+        }
+        assertFalse(EnvVarsCodec.decode(EnvVarsCodec.encode(new EnvVars("A", "1"), 0)).isEnableEmpty());
+    }
+
+    @Test
+    public void dictionary() {
+        // version, flags, count, dictionary index, value length, value
+        assertEquals(7, EnvVarsCodec.encode(new EnvVars("PATH", "/a"), 0).length);
+        // names only match the dictionary with the same case, otherwise they are written out
+        assertEquals(12, EnvVarsCodec.encode(new EnvVars("path", "/a"), 0).length);
+    }
+
+    @Test
+    public void prefixCompression() {
+        EnvVars env = new EnvVars("WORKSPACE", "/var/lib/jenkins/workspace/job", "WORKSPACE_TMP",
+            "/var/lib/jenkins/workspace/job@tmp");
+        byte[] compressed = EnvVarsCodec.encode(env, EnvVarsCodec.PREFIX_COMPRESSION);
+        assertTrue(compressed.length < EnvVarsCodec.encode(env, 0).length);
+        assertEquals(env, EnvVarsCodec.decode(compressed));
+    }
+
+    @Test
+    public void byteBuffer() {
+        EnvVars env = new EnvVars("A", "1");
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        EnvVarsCodec.encode(env, 0, buf);
+        EnvVarsCodec.encode(new EnvVars("B", "2"), EnvVarsCodec.PREFIX_COMPRESSION, buf);
+        buf.flip();
+        assertEquals(env, EnvVarsCodec.decode(buf));
+        assertEquals(new EnvVars("B", "2"), EnvVarsCodec.decode(buf));
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    public void streams() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        EnvVars big = new EnvVars();
+        for (int i = 0; i < 1000; i++)
+            big.put("VAR_" + i, "value " + i);
+        EnvVarsCodec.write(big, EnvVarsCodec.PREFIX_COMPRESSION, bytes);
+        EnvVarsCodec.write(new EnvVars("A", "1"), 0, bytes);
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes.toByteArray());
+        assertEquals(big, EnvVarsCodec.read(in));
+        assertEquals(new EnvVars("A", "1"), EnvVarsCodec.read(in));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void unknownVersion() {
+        try {
+            EnvVarsCodec.decode(new byte[] { 99, 0, 0 });
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void malformed() {
+        byte[][] malformed = {
+                // name of 2^31 - 1 chars
+                { 1, 0, 1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 },
+                // negative name length
+                { 1, 0, 1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F },
+                // shared prefix plus length overflows
+                { 1, 1, 2, 1, 0, 1, 'a', 2, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 },
+                // negative entry count
+                { 1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F },
+                // varint longer than 5 bytes
+                { 1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0 },
+                // unknown dictionary index
+                { 1, 0, 1, 127, 0 },
+                // invalid UTF-8 lead byte
+                { 1, 0, 1, 0, 1, (byte) 0xFF, 0 },
+                // truncated
+                { 1, 0, 1, 0, 3, 'a' } };
+        for (byte[] data : malformed) {
+            try {
+                EnvVarsCodec.decode(data);
+                fail();
+            } catch (IllegalArgumentException e) {
+            }
+            try {
+                EnvVarsCodec.read(new ByteArrayInputStream(data));
+                fail();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    @Test
+    public void serialization() throws Exception {
+        EnvVars env = new EnvVars(true);
+        env.put("EMPTY", "");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(env);
+        out.writeObject(env.newLayer());
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Object copy = in.readObject();
+        assertEquals(EnvVars.class, copy.getClass());
+        assertEquals(env, copy);
+        assertTrue(((EnvVars) copy).isEnableEmpty());
+        // layers are written as plain EnvVars
+        assertEquals(EnvVars.class, in.readObject().getClass());
+    }
+}
@@ -1,16 +1,45 @@
 package org.jenkins.util.variable.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.jenkins.util.variable.CaseInsensitiveComparator;
+import org.jenkins.util.variable.ConcurrentEnvVars;
+import org.jenkins.util.variable.CyclicGraphDetector;
+import org.jenkins.util.variable.CyclicGraphDetector.CycleDetectedException;
 import org.jenkins.util.variable.EnvVars;
+import org.jenkins.util.variable.LayeredEnvVars;
+import org.jenkins.util.variable.OverrideDependencyGraph;
 import org.jenkins.util.variable.OverrideOrderCalculator;
+import org.jenkins.util.variable.PersistentEnvVars;
+import org.jenkins.util.variable.ReactiveOverrides;
+import org.jenkins.util.variable.Util;
+import org.jenkins.util.variable.VariableResolver;
 import org.junit.Test;
 
 import com.google.common.collect.Sets;
@@ -24,6 +53,32 @@ public class EnvVarsTest {
         assertEquals("A:B:C", ev.get("PATH"));
     }
 
+    @Test
+    public void sortedCaseInsensitiveView() throws Exception {
+        EnvVars ev = new EnvVars("b", "2", "A", "1", "c", "3", "Path", "p");
+        ev.put("PATH", "q");
+        assertEquals(Arrays.asList("A", "b", "c", "Path"), new ArrayList<String>(ev.keySet()));
+        assertEquals("q", ev.get("path"));
+        assertEquals(CaseInsensitiveComparator.INSTANCE, ev.comparator());
+        assertEquals("A", ev.firstKey());
+        assertEquals(Arrays.asList("A", "b"), new ArrayList<String>(ev.headMap("C").keySet()));
+        assertEquals(Arrays.asList("c", "Path"), new ArrayList<String>(ev.tailMap("C").keySet()));
+
+        Iterator<String> it = ev.keySet().iterator();
+        it.next();
+        it.remove();
+        assertFalse(ev.containsKey("a"));
+        assertEquals(new TreeMap<String, String>(ev), new EnvVars((EnvVars) ev.clone()));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(ev);
+        out.close();
+        Object copy = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(ev, copy);
+        assertEquals("2", ((EnvVars) copy).get("B"));
+    }
+
     @Test
     public void overrideExpandingAll() {
         EnvVars env = new EnvVars();
@@ -117,4 +172,449 @@ public class EnvVarsTest {
         assertEquals(Arrays.asList("B", "A", "C"), order.subList(0, 3));
         assertEquals(Sets.newHashSet("E", "D"), new HashSet<String>(order.subList(3, order.size())));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void overrideOrderCalculatorCutsLikeRestarting() {
+        EnvVars env = new EnvVars("V2", "b2", "V3", "b3");
+        Map<String, String> overrides = new TreeMap<String, String>();
+        overrides.put("V0", "x0:${V3}");
+        overrides.put("V2", "x2:${V0}:${V3}");
+        overrides.put("V3", "x3:${V2}:${V2}");
+        env.overrideExpandingAll(overrides);
+        assertEquals("x3:b2:b2", env.get("V3"));
+        assertEquals("x0:b3", env.get("V0"));
+        assertEquals("x2:x0:b3:x3:b2:b2", env.get("V2"));
+
+        // the random graphs have many cycles, each of which logs a warning
+        Logger logger = Logger.getLogger(EnvVars.class.getName());
+        Level level = logger.getLevel();
+        logger.setLevel(Level.OFF);
+        try {
+            Random random = new Random(9);
+            for (int round = 0; round < 2000; round++) {
+                EnvVars target = new EnvVars();
+                Map<String, String> o = new TreeMap<String, String>();
+                int n = 2 + random.nextInt(8);
+                for (int i = 0; i < n; i++) {
+                    if (random.nextInt(3) == 0)
+                        target.put("V" + i, "b" + i);
+                    if (random.nextInt(5) == 0)
+                        continue;
+                    StringBuilder value = new StringBuilder("x" + i);
+                    for (int j = random.nextInt(4); j > 0; j--)
+                        value.append(":${V").append(random.nextInt(n)).append('}');
+                    o.put("V" + i, value.toString());
+                }
+                assertEquals(o.toString(), restartingOrder(target, o),
+                    new OverrideOrderCalculator(target, o).getOrderedVariableNames());
+            }
+        } finally {
+            logger.setLevel(level);
+        }
+    }
+
+    /**
+     * Override order as calculated by restarting a traversal of the whole graph after each
+     * cut reference, as OverrideOrderCalculator did up to 1.x.
+     */
+    private static List<String> restartingOrder(EnvVars target, Map<String, String> overrides) {
+        final Map<String, Set<String>> refereeSetMap = new TreeMap<String, Set<String>>(
+            CaseInsensitiveComparator.INSTANCE);
+        for (final Map.Entry<String, String> entry : overrides.entrySet()) {
+            final Set<String> refereeSet = new TreeSet<String>(CaseInsensitiveComparator.INSTANCE);
+            Util.replaceMacro(entry.getValue(), new VariableResolver<String>() {
+                public String resolve(String name) {
+                    refereeSet.add(name);
+                    return "";
+                }
+            });
+            refereeSet.remove(entry.getKey());
+            refereeSetMap.put(entry.getKey(), refereeSet);
+        }
+
+        while (true) {
+            CyclicGraphDetector<String> sorter = new CyclicGraphDetector<String>() {
+                @Override
+                protected Iterable<? extends String> getEdges(String n) {
+                    Set<String> referees = refereeSetMap.get(n);
+                    return referees != null ? referees : Collections.<String> emptySet();
+                }
+            };
+            try {
+                sorter.run(refereeSetMap.keySet());
+            } catch (CycleDetectedException e) {
+                List<?> cycle = e.cycle;
+                int referrer = cycle.size() - 2;
+                for (int i = 0; i < cycle.size(); i++) {
+                    if (target.containsKey(cycle.get(i))) {
+                        referrer = cycle.lastIndexOf(cycle.get(i)) - 1;
+                        break;
+                    }
+                }
+                refereeSetMap.get(cycle.get(referrer)).remove(cycle.get(referrer + 1));
+                continue;
+            }
+
+            List<String> order = new ArrayList<String>();
+            for (String key : sorter.getSorted()) {
+                if (refereeSetMap.containsKey(key))
+                    order.add(key);
+            }
+            return order;
+        }
+    }
+
+    @Test
+    public void persistentEnvVars() {
+        EnvVars expected = new EnvVars();
+        PersistentEnvVars actual = PersistentEnvVars.EMPTY;
+        List<PersistentEnvVars> versions = new ArrayList<PersistentEnvVars>();
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            String key = (random.nextBoolean() ? "k" : "K") + random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                actual = actual.without(key);
+            } else {
+                expected.put(key, "v" + i);
+                actual = actual.with(key, "v" + i);
+            }
+            if (i % 5000 == 0)
+                versions.add(actual);
+        }
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected, actual);
+        assertEquals(new ArrayList<String>(expected.keySet()), new ArrayList<String>(actual.keySet()));
+
+        // older versions are not affected
+        assertEquals(1, versions.get(0).size());
+
+        PersistentEnvVars env = PersistentEnvVars.of(new EnvVars("PATH", "orig", "A", "x"));
+        PersistentEnvVars overridden = env.override("PATH+TEST", "another").override("A", "");
+        assertEquals("another" + File.pathSeparator + "orig", overridden.get("Path"));
+        assertFalse(overridden.containsKey("A"));
+        assertEquals("orig", env.get("PATH"));
+        assertEquals("x/orig", env.expand("${a}/$PATH"));
+    }
+
+    @Test
+    public void persistentEnvVarsPathSeparator() throws Exception {
+        EnvVars agent = new EnvVars("PATH", "/bin");
+        agent.setPathSeparator(';');
+        PersistentEnvVars env = PersistentEnvVars.of(agent);
+        assertEquals(';', env.getPathSeparator());
+        assertEquals("/jdk;/bin", env.override("PATH+JDK", "/jdk").get("PATH"));
+        assertEquals(';', env.without("PATH").with("A", "a").toEnvVars().getPathSeparator());
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        new ObjectOutputStream(buf).writeObject(env);
+        PersistentEnvVars read = (PersistentEnvVars) new ObjectInputStream(new ByteArrayInputStream(
+            buf.toByteArray())).readObject();
+        // like EnvVars, the separator is left to the machine that reads the variables
+        assertEquals(env, read);
+        assertEquals(File.pathSeparatorChar, read.getPathSeparator());
+
+        ConcurrentEnvVars concurrent = new ConcurrentEnvVars(agent);
+        concurrent.override("PATH+JDK", "/jdk");
+        assertEquals("/jdk;/bin", concurrent.get("PATH"));
+        concurrent.clear();
+        concurrent.override("PATH+A", "/a");
+        concurrent.override("PATH+B", "/b");
+        assertEquals("/b;/a", concurrent.get("PATH"));
+    }
+
+    @Test
+    public void persistentEnvVarsEnableEmpty() throws Exception {
+        Map<String, String> overrides = new LinkedHashMap<String, String>();
+        overrides.put("A", "");
+        overrides.put("PATH+EMPTY", "");
+        overrides.put("B", "${NOSUCH}");
+        overrides.put("C", null);
+
+        for (boolean enableEmpty : new boolean[] { true, false }) {
+            EnvVars expected = new EnvVars(enableEmpty);
+            expected.putAll(new EnvVars("PATH", "/bin", "A", "a", "C", "c"));
+            PersistentEnvVars env = PersistentEnvVars.of(expected);
+            assertEquals(enableEmpty, env.isEnableEmpty());
+
+            PersistentEnvVars actual = env.overrideAll(overrides).overrideExpandingAll(
+                Collections.singletonMap("D", "${A}"));
+            expected.overrideAll(overrides);
+            expected.overrideExpandingAll(Collections.singletonMap("D", "${A}"));
+            assertEquals(expected, actual);
+            assertEquals(enableEmpty, actual.without("A").with("E", "e").isEnableEmpty());
+            assertEquals(enableEmpty, actual.toEnvVars().isEnableEmpty());
+
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            new ObjectOutputStream(buf).writeObject(actual);
+            PersistentEnvVars read = (PersistentEnvVars) new ObjectInputStream(new ByteArrayInputStream(
+                buf.toByteArray())).readObject();
+            assertEquals(enableEmpty, read.isEnableEmpty());
+        }
+        assertEquals("", PersistentEnvVars.EMPTY.withEnableEmpty(true).override("A", "").get("A"));
+    }
+
+    @Test
+    public void layeredEnvVars() {
+        EnvVars base = new EnvVars("Path", "orig", "A", "x", "B", "y", "WORKSPACE", "/ws");
+        EnvVars copy = new EnvVars(base);
+        LayeredEnvVars layer = base.newLayer();
+
+        Map<String, String> overrides = new TreeMap<String, String>();
+        overrides.put("PATH+TEST", "another");
+        overrides.put("A", "");
+        overrides.put("C", "${WORKSPACE}/c");
+        overrides.put("D", "$B$C");
+        for (EnvVars env : Arrays.asList(copy, layer)) {
+            env.overrideExpandingAll(overrides);
+            env.remove("B");
+            env.put("b", "z");
+        }
+
+        assertEquals(copy, layer);
+        assertEquals(copy.size(), layer.size());
+        assertEquals(new ArrayList<String>(copy.keySet()), new ArrayList<String>(layer.keySet()));
+        assertEquals("another" + File.pathSeparator + "orig", layer.get("PATH"));
+        assertEquals("y/ws/c", layer.get("D"));
+        assertEquals(copy.expand("$b:$A:$PATH"), layer.expand("$b:$A:$PATH"));
+        assertEquals("x", base.get("A"));
+
+        LayeredEnvVars deeper = layer.newLayer();
+        deeper.put("A", "again");
+        assertEquals(2, deeper.getDepth());
+        assertEquals("again", deeper.get("a"));
+        assertEquals(new ArrayList<String>(copy.keySet()).size() + 1, deeper.flatten().size());
+        assertEquals(1, new LayeredEnvVars(deeper, 1).getDepth());
+    }
+
+    @Test
+    public void deepLayeredEnvVars() {
+        EnvVars base = new EnvVars("A", "a", "B", "b");
+        LayeredEnvVars top = base.newLayer();
+        for (int i = 0; i < 100000; i++)
+            top = top.newLayer();
+        top.put("C", "c");
+        assertEquals("a", top.get("a"));
+        assertTrue(top.containsKey("B"));
+        assertEquals(3, top.size());
+
+        // iterating again sees later changes anywhere in the chain
+        base.put("D", "d");
+        base.put("A", "a2");
+        LayeredEnvVars middle = (LayeredEnvVars) top.getParent();
+        middle.remove("B");
+        assertEquals(Arrays.asList("A", "C", "D"), new ArrayList<String>(top.keySet()));
+        assertEquals("a2", top.firstEntry().getValue());
+
+        // setting an inherited value during iteration only shadows it in the layer
+        for (Map.Entry<String, String> e : top.entrySet())
+            e.setValue(e.getValue() + "!");
+        assertEquals("a2!", top.get("A"));
+        assertEquals("a2", base.get("A"));
+        assertEquals("[A=a2!, C=c!, D=d!]", top.entrySet().toString());
+
+        Iterator<String> it = top.keySet().iterator();
+        it.next();
+        base.put("E", "e");
+        try {
+            it.next();
+            fail();
+        } catch (java.util.ConcurrentModificationException e) {
+        }
+    }
+
+    @Test
+    public void expandAll() {
+        EnvVars env = new EnvVars("A", "1", "B", "2");
+        String[] strings = new String[10000];
+        for (int i = 0; i < strings.length; i++)
+            strings[i] = i % 3 == 0 ? null : "$A-${B}-$C-" + (i % 7);
+
+        String[] expected = new String[strings.length];
+        for (int i = 0; i < strings.length; i++)
+            expected[i] = env.expand(strings[i]);
+
+        assertArrayEquals(expected, env.expandAll(strings));
+        assertEquals(Arrays.asList(expected), env.expandAll(Arrays.asList(strings)));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            assertArrayEquals(expected, env.expandAll(strings, executor));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void overrideOrderCalculatorParallel() {
+        EnvVars env = new EnvVars("C0", "existing");
+        EnvVars overrides = new EnvVars();
+        Random random = new Random(3);
+        for (int i = 0; i < 3 * OverrideOrderCalculator.PARALLEL_SCAN_THRESHOLD; i++)
+            overrides.put("C" + i, "${C" + random.nextInt(i + 1) + "}:${C" + random.nextInt(i + 1) + "}");
+
+        List<String> sequential = new OverrideOrderCalculator(env, overrides).getOrderedVariableNames();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            assertEquals(sequential, new OverrideOrderCalculator(env, overrides, executor).getOrderedVariableNames());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void overrideDependencyGraph() {
+        EnvVars env = new EnvVars("A", "a", "PATH", "/bin");
+        EnvVars overrides = new EnvVars("A", "${B}-a", "B", "b", "C", "${A}-c", "PATH+JDK", "/jdk/bin");
+        OverrideDependencyGraph graph = new OverrideDependencyGraph(env, overrides);
+        assertEquals(Arrays.asList("B", "A", "C", "PATH+JDK"), graph.getOrderedVariableNames());
+
+        assertEquals(Arrays.asList("B", "A", "C"), graph.put("B", "${D}"));
+        assertEquals(Arrays.asList("D", "B", "A", "C"), graph.put("D", "d"));
+        assertEquals(Arrays.asList("D", "B", "A", "C", "PATH+JDK"), graph.getOrderedVariableNames());
+        assertEquals(Collections.emptyList(), graph.put("D", "d"));
+
+        // D -> A -> B -> D: the reference to A, which exists in the target, is cut
+        assertEquals(Arrays.asList("D", "B", "A", "C"), graph.put("D", "${A}"));
+        assertEquals(Arrays.asList("D", "B", "A", "C", "PATH+JDK"), graph.getOrderedVariableNames());
+
+        assertTrue(graph.hasCutReferences());
+
+        // without B, D no longer takes part in a cycle and comes after A again
+        assertEquals(Arrays.asList("A", "C", "D", "B"), graph.remove("B"));
+        assertEquals(Arrays.asList("A", "C", "D", "PATH+JDK"), graph.getOrderedVariableNames());
+        assertFalse(graph.hasCutReferences());
+        assertEquals(Arrays.asList("PATH+JDK"), graph.remove("PATH+JDK"));
+        assertEquals(Arrays.asList("A", "C", "D"), graph.getDependents(Arrays.asList("b")));
+
+        // XYZ+AAA overrides are applied in name order, whatever the order they were added in
+        graph.put("PATH+B", "/b");
+        graph.put("PATH+A", "/a");
+        assertEquals(Arrays.asList("A", "C", "D", "PATH+A", "PATH+B"), graph.getOrderedVariableNames());
+
+        // random acyclic changes: every override must stay after the ones it refers to
+        Random random = new Random(5);
+        graph = new OverrideDependencyGraph(new EnvVars(), Collections.<String, String> emptyMap());
+        for (int i = 0; i < 2000; i++) {
+            int n = random.nextInt(200);
+            if (random.nextInt(5) == 0)
+                graph.remove("V" + n);
+            else
+                graph.put("V" + n, "${V" + random.nextInt(n + 1) + "}:$V" + random.nextInt(n + 1));
+        }
+        List<String> order = graph.getOrderedVariableNames();
+        for (String name : order) {
+            for (String ref : graph.getReferences(name)) {
+                if (graph.getValue(ref) != null)
+                    assertTrue(name + " -> " + ref, order.indexOf(ref) < order.indexOf(name));
+            }
+        }
+    }
+
+    @Test
+    public void overrideExpandingAllReactive() {
+        char sep = File.pathSeparatorChar;
+        EnvVars base = new EnvVars("WORKSPACE", "/ws", "PATH", "/bin", "HOME", "/home", "M2", "/m2");
+        EnvVars overrides = new EnvVars("BUILD_DIR", "${WORKSPACE}/build", "OUT", "${BUILD_DIR}/out",
+            "M2", "$M2:${HOME}/.m2", "PATH+OUT", "${OUT}/bin", "LOG", "$HOME/log", "X", "${Y}", "Y", "${X}");
+
+        EnvVars env = new EnvVars(base);
+        ReactiveOverrides reactive = env.overrideExpandingAllReactive(overrides);
+        assertEquals(new EnvVars(base).overrideExpandingAll(overrides), env);
+
+        assertEquals(new HashSet<String>(Arrays.asList("WORKSPACE", "BUILD_DIR", "OUT", "PATH")),
+            reactive.set("WORKSPACE", "/ws2"));
+        base.put("WORKSPACE", "/ws2");
+        assertEquals(new EnvVars(base).overrideExpandingAll(overrides), env);
+        assertEquals("/ws2/build/out/bin" + sep + "/bin", env.get("PATH"));
+
+        // M2 refers to its own original value
+        assertEquals(new HashSet<String>(Arrays.asList("M2")), reactive.set("M2", "/opt/m2"));
+        base.put("M2", "/opt/m2");
+        assertEquals(new EnvVars(base).overrideExpandingAll(overrides), env);
+        assertEquals(Collections.emptySet(), reactive.set("M2", "/opt/m2"));
+
+        assertEquals(new HashSet<String>(Arrays.asList("OUT", "PATH")), reactive.update(
+            Collections.singletonMap("OUT", "${BUILD_DIR}/dist"), Collections.<String> emptySet()));
+        overrides.put("OUT", "${BUILD_DIR}/dist");
+        assertEquals(new EnvVars(base).overrideExpandingAll(overrides), env);
+
+        assertEquals(new HashSet<String>(Arrays.asList("BUILD_DIR", "OUT", "PATH")),
+            reactive.update(Collections.<String, String> emptyMap(), Arrays.asList("BUILD_DIR")));
+        overrides.remove("BUILD_DIR");
+        assertEquals(new EnvVars(base).overrideExpandingAll(overrides), env);
+
+        reactive.update(Collections.<String, String> emptyMap(), Arrays.asList("PATH+OUT"));
+        overrides.remove("PATH+OUT");
+        assertEquals(new EnvVars(base).overrideExpandingAll(overrides), env);
+        assertEquals("/bin", env.get("PATH"));
+
+        reactive.update(Collections.singletonMap("PATH+B", "/b"), Collections.<String> emptySet());
+        reactive.update(Collections.singletonMap("PATH+A", "/a"), Collections.<String> emptySet());
+        assertEquals("/b" + sep + "/a" + sep + "/bin", env.get("PATH"));
+    }
+
+    @Test
+    public void overrideExpandingAllReactiveMatchesFullOverride() {
+        String[] names = { "V0", "V1", "V2", "V3", "V4", "PATH" };
+        String[] extensions = { "PATH+A", "PATH+B", "V1+X" };
+        Logger logger = Logger.getLogger(EnvVars.class.getName());
+        Level level = logger.getLevel();
+        logger.setLevel(Level.OFF);
+        try {
+            Random random = new Random(3);
+            for (int round = 0; round < 300; round++) {
+                EnvVars base = new EnvVars();
+                EnvVars overrides = new EnvVars();
+                for (String name : names) {
+                    if (random.nextBoolean())
+                        base.put(name, name.toLowerCase());
+                    if (random.nextBoolean())
+                        overrides.put(name, randomValue(random, names));
+                }
+                EnvVars env = new EnvVars(base);
+                ReactiveOverrides reactive = env.overrideExpandingAllReactive(overrides);
+                assertEquals(new EnvVars(base).overrideExpandingAll(overrides), env);
+
+                for (int step = 0; step < 20; step++) {
+                    int op = random.nextInt(4);
+                    // updates of case 1 change an extension, the others a plain name
+                    String name = op == 1 ? extensions[random.nextInt(extensions.length)]
+                                          : names[random.nextInt(names.length)];
+                    String value;
+                    switch (op) {
+                    case 0:
+                        value = random.nextBoolean() ? name + step : null;
+                        reactive.set(name, value);
+                        if (value == null)
+                            base.remove(name);
+                        else
+                            base.put(name, value);
+                        break;
+                    case 1:
+                    case 2:
+                        value = randomValue(random, names);
+                        reactive.update(Collections.singletonMap(name, value), Collections.<String> emptySet());
+                        overrides.put(name, value);
+                        break;
+                    default:
+                        if (random.nextBoolean())
+                            name = extensions[random.nextInt(extensions.length)];
+                        reactive.update(Collections.<String, String> emptyMap(), Collections.singleton(name));
+                        overrides.remove(name);
+                    }
+                    assertEquals(overrides + " over " + base, new EnvVars(base).overrideExpandingAll(overrides), env);
+                }
+            }
+        } finally {
+            logger.setLevel(level);
+        }
+    }
+
+    private static String randomValue(Random random, String[] names) {
+        StringBuilder value = new StringBuilder("x");
+        for (int i = random.nextInt(3); i > 0; i--)
+            value.append(":${").append(names[random.nextInt(names.length)]).append('}');
+        return value.toString();
+    }
+}
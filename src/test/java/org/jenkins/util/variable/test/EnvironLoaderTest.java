@@ -0,0 +1,82 @@
+package org.jenkins.util.variable.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.jenkins.util.variable.EnvVars;
+import org.jenkins.util.variable.EnvironLoader;
+import org.jenkins.util.variable.Util;
+import org.junit.Test;
+
+public class EnvironLoaderTest {
+    private static ByteBuffer bytes(String s) throws Exception {
+        return ByteBuffer.wrap(s.getBytes("UTF-8"));
+    }
+
+    @Test
+    public void sameAsAddLine() throws Exception {
+        String[] lines = { "PATH=/usr/bin:/bin", "=C:=C:\\", "EQ=a=b", "MULTI=line1\nline2", "EMPTY=",
+                "\u00e9t\u00e9=\u65e5\u672c", "noseparator", "path=/sbin" };
+        EnvVars expected = new EnvVars();
+        for (String line : lines)
+            expected.addLine(line);
+        EnvVars env = new EnvironLoader().load(bytes(Util.join(Arrays.asList(lines), "\0")));
+        assertEquals(expected, env);
+        assertEquals("/sbin", env.get("PATH"));
+        assertEquals("line1\nline2", env.get("multi"));
+    }
+
+    @Test
+    public void directBuffer() throws Exception {
+        byte[] data = "A=1\0\u00e9=\u00e8\0B=\0".getBytes("UTF-8");
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        assertEquals(new EnvVars("A", "1", "\u00e9", "\u00e8", "B", ""), new EnvironLoader().load(direct));
+        assertFalse(direct.hasRemaining());
+    }
+
+    @Test
+    public void newlineSeparated() throws Exception {
+        assertEquals(EnvironLoader.NEWLINE, EnvironLoader.separatorOf(bytes("A=1\nB=2\n")));
+        EnvVars newlines = new EnvVars("C", "3");
+        new EnvironLoader().load(bytes("A=1\nB=2\n"), EnvironLoader.NEWLINE, newlines);
+        assertEquals(new EnvVars("A", "1", "B", "2", "C", "3"), newlines);
+    }
+
+    @Test
+    public void mappedFile() throws Exception {
+        // large enough to be memory-mapped
+        EnvVars big = new EnvVars();
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            big.put("VAR_" + i, "value " + i);
+            buf.append("VAR_").append(i).append("=value ").append(i).append('\0');
+        }
+        File file = File.createTempFile("environ", null);
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(buf.toString().getBytes("UTF-8"));
+            out.close();
+            EnvVars loaded = new EnvVars();
+            new EnvironLoader(Charset.forName("UTF-8"), true).load(file, EnvironLoader.NUL, loaded);
+            assertEquals(big, loaded);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void process() throws Exception {
+        File self = new File("/proc/self");
+        if (self.exists() && System.getenv("PATH") != null) {
+            int pid = Integer.parseInt(self.getCanonicalFile().getName());
+            assertEquals(System.getenv("PATH"), new EnvironLoader().loadProcess(pid).get("PATH"));
+        }
+    }
+}
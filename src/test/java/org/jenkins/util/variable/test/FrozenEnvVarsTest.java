@@ -0,0 +1,93 @@
+package org.jenkins.util.variable.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jenkins.util.variable.EnvVars;
+import org.jenkins.util.variable.FrozenEnvVars;
+import org.junit.Test;
+
+public class FrozenEnvVarsTest {
+    @Test
+    public void snapshot() {
+        EnvVars env = new EnvVars("Path", "/bin", "b", "2", "A", "1", "HOME", "/home");
+        FrozenEnvVars frozen = env.freeze();
+        env.put("b", "3");
+        env.remove("A");
+
+        assertEquals("/bin", frozen.get("PATH"));
+        assertEquals("2", frozen.get("B"));
+        assertEquals("1", frozen.get("a"));
+        assertFalse(frozen.containsKey("C"));
+        assertArrayEquals(new String[] { "A", "b", "HOME", "Path" }, frozen.getKeys());
+        assertArrayEquals(new String[] { "A=1", "b=2", "HOME=/home", "Path=/bin" }, frozen.toEnvp());
+        assertEquals("/home/2", frozen.expand("$home/${B}"));
+    }
+
+    @Test
+    public void equalsEnvVars() {
+        EnvVars env = new EnvVars("JAVA_HOME", "/jdk", "EMPTY", "");
+        FrozenEnvVars frozen = env.freeze();
+        assertEquals(env, frozen);
+        assertEquals(frozen, env);
+        assertEquals(env.hashCode(), frozen.hashCode());
+        // snapshots of the same variables can be deduplicated in a hash set
+        assertEquals(1, new HashSet<Object>(Arrays.asList(frozen, env.freeze())).size());
+        assertSame(frozen, FrozenEnvVars.of(frozen));
+
+        env.put("java_home", "/jdk8");
+        assertFalse(frozen.equals(env.freeze()));
+    }
+
+    @Test
+    public void applyTo() {
+        Map<String, String> target = new TreeMap<String, String>();
+        target.put("X", "x");
+        new EnvVars("A", "1").freeze().applyTo(target);
+        assertEquals(Collections.singletonMap("A", "1"), target);
+    }
+
+    @Test
+    public void immutable() {
+        FrozenEnvVars frozen = new EnvVars("A", "1").freeze();
+        try {
+            frozen.put("C", "3");
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            frozen.entrySet().iterator().next().setValue("2");
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+        assertEquals("1", frozen.toEnvVars().put("A", "2"));
+        assertEquals("1", frozen.get("A"));
+    }
+
+    @Test
+    public void serialization() throws Exception {
+        FrozenEnvVars frozen = new EnvVars("Path", "/bin").freeze();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(frozen);
+        out.close();
+        FrozenEnvVars copy = (FrozenEnvVars) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))
+            .readObject();
+        assertEquals(frozen, copy);
+        assertEquals("/bin", copy.get("PATH"));
+        assertArrayEquals(frozen.toEnvp(), copy.toEnvp());
+    }
+}
@@ -0,0 +1,118 @@
+package org.jenkins.util.variable.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import org.jenkins.util.variable.EnvVars;
+import org.jenkins.util.variable.EnvVarsCodec;
+import org.jenkins.util.variable.MappedEnvVars;
+import org.jenkins.util.variable.Util;
+import org.jenkins.util.variable.VariableResolver;
+import org.junit.Test;
+
+public class MappedEnvVarsTest {
+    @Test
+    public void lookups() {
+        EnvVars env = new EnvVars("Path", "/bin", "b", "2", "A", "1", "EMPTY", "", "\u00e9t\u00e9", "\u65e5\u672c");
+        MappedEnvVars mapped = new MappedEnvVars(MappedEnvVars.encode(env));
+        assertEquals(env, mapped);
+        assertEquals(new ArrayList<String>(env.keySet()), new ArrayList<String>(mapped.keySet()));
+        assertEquals("/bin", mapped.get("PATH"));
+        assertEquals("", mapped.get("empty"));
+        assertEquals("\u65e5\u672c", mapped.get("\u00c9T\u00c9"));
+        assertFalse(mapped.containsKey("C"));
+        assertFalse(mapped.containsKey("Pat"));
+        assertEquals("/bin:2:${C}", Util.replaceMacro("$PATH:${b}:${C}", (VariableResolver<String>) mapped));
+    }
+
+    @Test
+    public void empty() {
+        MappedEnvVars mapped = new MappedEnvVars(MappedEnvVars.encode(new EnvVars()));
+        assertEquals(0, mapped.size());
+        assertNull(mapped.get("A"));
+    }
+
+    @Test
+    public void rewrite() throws Exception {
+        File file = File.createTempFile("env", ".snapshot");
+        try {
+            MappedEnvVars.write(new EnvVars("A", "1", "B", "2"), file);
+            MappedEnvVars mapped = MappedEnvVars.open(file);
+
+            // readers of the old file keep their view
+            MappedEnvVars.write(new EnvVars("A", "3"), file);
+            assertEquals("1", mapped.get("a"));
+            assertEquals(new EnvVars("A", "3"), MappedEnvVars.open(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void wrongFormat() {
+        try {
+            new MappedEnvVars(ByteBuffer.wrap(EnvVarsCodec.encode(new EnvVars("A", "1"), 0)));
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void corrupted() {
+        ByteBuffer good = MappedEnvVars.encode(new EnvVars("A", "1", "PATH", "/bin"));
+        int records = 12, heap = records + 2 * 24;
+
+        // heap cut short
+        ByteBuffer truncated = good.duplicate();
+        truncated.limit(truncated.limit() - 2);
+        // value of the second entry points past the end
+        ByteBuffer offset = copy(good);
+        offset.putInt(records + 24 + 16, good.limit());
+        // negative length of a name
+        ByteBuffer length = copy(good);
+        length.putInt(records + 8 + 4, -1);
+        // folded name of the first entry points into the index
+        ByteBuffer index = copy(good);
+        index.putInt(records, heap - 4);
+
+        for (ByteBuffer corrupted : new ByteBuffer[] { truncated, offset, length, index }) {
+            try {
+                new MappedEnvVars(corrupted);
+                fail();
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    @Test
+    public void corruptedFile() throws Exception {
+        File file = File.createTempFile("env", ".snapshot");
+        try {
+            MappedEnvVars.write(new EnvVars("A", "1"), file);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(raf.length() - 1);
+            raf.close();
+            MappedEnvVars.open(file);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static ByteBuffer copy(ByteBuffer buf) {
+        ByteBuffer copy = ByteBuffer.allocate(buf.remaining());
+        copy.put(buf.duplicate()).flip();
+        return copy;
+    }
+}
@@ -0,0 +1,105 @@
+package org.jenkins.util.variable.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jenkins.util.variable.ConcurrentEnvVars;
+import org.jenkins.util.variable.EnvVars;
+import org.jenkins.util.variable.OverrideTransaction;
+import org.jenkins.util.variable.PersistentEnvVars;
+import org.junit.Test;
+
+public class OverrideTransactionTest {
+    @Test
+    public void sameAsSequentialOverrides() {
+        char sep = File.pathSeparatorChar;
+        OverrideTransaction tx = new OverrideTransaction().override("PATH+JDK", "/jdk/bin")
+            .override("PATH+MAVEN", "/maven/bin").override("OLD", null)
+            .overrideExpandingAll(Collections.singletonMap("JAVA_HOME", "${WORKSPACE}/jdk"));
+        assertEquals(4, tx.size());
+
+        EnvVars expected = new EnvVars("PATH", "/bin", "OLD", "x", "WORKSPACE", "/ws");
+        expected.override("PATH+JDK", "/jdk/bin");
+        expected.override("PATH+MAVEN", "/maven/bin");
+        expected.override("OLD", null);
+        expected.overrideExpandingAll(Collections.singletonMap("JAVA_HOME", "${WORKSPACE}/jdk"));
+        assertEquals("/maven/bin" + sep + "/jdk/bin" + sep + "/bin", expected.get("PATH"));
+
+        EnvVars env = new EnvVars("PATH", "/bin", "OLD", "x", "WORKSPACE", "/ws");
+        assertEquals(expected, tx.commit(env));
+        // committing again applies the calls again
+        tx.commit(env);
+        assertEquals("/maven/bin" + sep + "/jdk/bin" + sep + expected.get("PATH"), env.get("PATH"));
+    }
+
+    @Test
+    public void commitConcurrent() {
+        ConcurrentEnvVars env = new ConcurrentEnvVars(new EnvVars("A", "1"));
+        PersistentEnvVars before = env.snapshot();
+        PersistentEnvVars published = new OverrideTransaction().override("A", null).override("B", "2")
+            .overrideExpandingAll(Collections.singletonMap("C", "${B}3")).commit(env);
+        assertEquals(new EnvVars("B", "2", "C", "23"), published);
+        assertEquals(published, env.snapshot());
+        assertEquals(new EnvVars("A", "1"), before);
+    }
+
+    @Test
+    public void concurrentReadersDuringCommit() throws Exception {
+        final ConcurrentEnvVars env = new ConcurrentEnvVars(new EnvVars("A", "0", "B", "0"));
+        final AtomicReference<String> torn = new AtomicReference<String>();
+        Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread() {
+                @Override
+                public void run() {
+                    while (!"done".equals(env.get("DONE"))) {
+                        PersistentEnvVars s = env.snapshot();
+                        if (!s.get("A").equals(s.get("B")) || s.containsKey("OLD"))
+                            torn.compareAndSet(null, s.toString());
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        for (int i = 1; i <= 2000; i++)
+            new OverrideTransaction().override("OLD", "x").override("A", String.valueOf(i))
+                .override("OLD", null).override("B", String.valueOf(i)).commit(env);
+        new OverrideTransaction().override("DONE", "done").commit(env);
+        for (Thread t : readers)
+            t.join();
+        assertNull(torn.get());
+        assertEquals("2000", env.get("B"));
+    }
+
+    @Test
+    public void commitKeepsPathSeparator() {
+        EnvVars agent = new EnvVars("PATH", "/bin");
+        agent.setPathSeparator(';');
+        ConcurrentEnvVars env = new ConcurrentEnvVars(agent);
+        assertEquals("/c;/bin", new OverrideTransaction().override("PATH+C", "/c").commit(env).get("PATH"));
+    }
+
+    @Test
+    public void failureLeavesEnvVarsUnchanged() {
+        EnvVars env = new EnvVars("PATH", "/bin", "OLD", "x") {
+            @Override
+            public String get(Object key) {
+                if ("BROKEN".equals(key))
+                    throw new IllegalStateException();
+                return super.get(key);
+            }
+        };
+        try {
+            new OverrideTransaction().override("PATH+A", "/a").override("OLD", null)
+                .overrideExpandingAll(Collections.singletonMap("B", "${BROKEN}")).commit(env);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        assertEquals(new EnvVars("PATH", "/bin", "OLD", "x"), env);
+    }
+}
@@ -0,0 +1,85 @@
+package org.jenkins.util.variable.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jenkins.util.variable.EnvVars;
+import org.jenkins.util.variable.PathList;
+import org.junit.Test;
+
+public class PathListTest {
+    @Test
+    public void segments() {
+        PathList path = PathList.parse("/usr/bin:/bin", ':', false);
+        path.prepend("/opt/a:/opt/b").prepend("/bin").append("/sbin");
+        assertEquals("/bin:/opt/a:/opt/b:/usr/bin:/bin:/sbin", path.toString());
+        assertEquals("/bin;/opt/a;/opt/b;/usr/bin;/bin;/sbin", path.toString(';'));
+        assertTrue(path.contains("/opt/b"));
+        assertTrue(path.remove("/bin"));
+        assertFalse(path.remove("/nosuch"));
+        assertEquals(Arrays.asList("/opt/a", "/opt/b", "/usr/bin", "/sbin"), path.getSegments());
+    }
+
+    @Test
+    public void emptySegments() {
+        assertEquals(":", PathList.parse(":", ':', false).toString());
+        assertEquals("/a:", new PathList(':', false).append("").prepend("/a").toString());
+    }
+
+    @Test
+    public void deduplicate() {
+        PathList dedup = PathList.parse("/usr/bin:/bin", ':', true);
+        dedup.prepend("/bin").append("/usr/bin").append("/sbin");
+        assertEquals("/bin:/usr/bin:/sbin", dedup.toString());
+        assertEquals(3, dedup.size());
+    }
+
+    @Test
+    public void deduplicateRepeatedPrepends() {
+        PathList dedup = PathList.parse("/usr/bin:/bin", ':', true);
+        for (int i = 0; i < 10000; i++)
+            dedup.prepend(i % 2 == 0 ? "/jdk/bin" : "/maven/bin:/jdk/bin");
+        // the latest prepend wins, as with repeated PATH+XYZ overrides
+        assertEquals("/maven/bin:/jdk/bin:/usr/bin:/bin", dedup.toString());
+        assertEquals(4, dedup.getSegments().size());
+        assertEquals(4, dedup.size());
+        dedup.prepend("/bin");
+        assertEquals(Arrays.asList("/bin", "/maven/bin", "/jdk/bin", "/usr/bin"), dedup.getSegments());
+    }
+
+    @Test
+    public void overrideAll() {
+        Map<String, String> overrides = new LinkedHashMap<String, String>();
+        overrides.put("PATH+A", "/a");
+        overrides.put("path+B", "/b");
+        overrides.put("NEW+A", "/new/a");
+        overrides.put("NEW+B", "/new/b");
+        overrides.put("EMPTY+A", "/e");
+        overrides.put("OTHER", "x");
+        overrides.put("NEW", "reset");
+        overrides.put("NEW+C", "/new/c");
+
+        // PATH+XYZ values are joined once, with the separator of the environment
+        EnvVars env = new EnvVars("Path", "/usr/bin", "EMPTY", "");
+        env.setPathSeparator(';');
+        EnvVars oneByOne = new EnvVars(env);
+        oneByOne.setPathSeparator(';');
+        env.overrideAll(overrides);
+        assertEquals("/b;/a;/usr/bin", env.get("PATH"));
+        assertEquals("/new/c;reset", env.get("NEW"));
+        assertEquals("/e;", env.get("EMPTY"));
+        assertEquals("x", env.get("OTHER"));
+        assertEquals(Arrays.asList("EMPTY", "NEW", "OTHER", "Path"), new ArrayList<String>(env.keySet()));
+
+        // same as overriding one entry at a time
+        for (Map.Entry<String, String> e : overrides.entrySet())
+            oneByOne.override(e.getKey(), e.getValue());
+        assertEquals(oneByOne, env);
+    }
+}
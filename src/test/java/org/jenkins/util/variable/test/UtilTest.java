@@ -0,0 +1,207 @@
+package org.jenkins.util.variable.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jenkins.util.variable.CompiledTemplate;
+import org.jenkins.util.variable.EnvVars;
+import org.jenkins.util.variable.Util;
+import org.jenkins.util.variable.VariableResolver;
+import org.junit.Test;
+
+public class UtilTest {
+
+    /**
+     * The regular expression based implementation {@link Util#replaceMacro} used to have.
+     */
+    private static final Pattern VARIABLE = Pattern
+                                              .compile("\\$([A-Za-z0-9_]+|\\{[A-Za-z0-9_.]+\\}|\\$)");
+
+    private static String regexReplaceMacro(String s, VariableResolver<String> resolver) {
+        if (s == null) {
+            return null;
+        }
+
+        int idx = 0;
+        while (true) {
+            Matcher m = VARIABLE.matcher(s);
+            if (!m.find(idx))
+                return s;
+
+            String key = m.group().substring(1);
+
+            String value;
+            if (key.charAt(0) == '$') {
+                value = "$";
+            } else {
+                if (key.charAt(0) == '{')
+                    key = key.substring(1, key.length() - 1);
+                value = resolver.resolve(key);
+            }
+
+            if (value == null)
+                idx = m.end();
+            else {
+                s = s.substring(0, m.start()) + value + s.substring(m.end());
+                idx = m.start() + value.length();
+            }
+        }
+    }
+
+    private static VariableResolver<String> sampleResolver() {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("a", "A");
+        map.put("ab", "$a");
+        map.put("a.b", "${a}");
+        map.put("_", "");
+        map.put("B1", "$$");
+        return new VariableResolver.ByMap<String>(map);
+    }
+
+    @Test
+    public void replaceMacro() {
+        VariableResolver<String> resolver = sampleResolver();
+        assertEquals("A-$a-${a}-", Util.replaceMacro("$a-$ab-${a.b}-${_}", resolver));
+        assertEquals("A.b", Util.replaceMacro("$a.b", resolver));
+        assertEquals("$nosuch ${nosuch} ${} $ ${a", Util.replaceMacro("$nosuch ${nosuch} ${} $ ${a", resolver));
+        assertEquals("$a $$", Util.replaceMacro("$$a $B1", resolver));
+        assertEquals(null, Util.replaceMacro(null, resolver));
+
+        assertEquals(Arrays.asList("a", "ab", "a.b", "_", "a"),
+            Util.extractReferences("$a-$ab-${a.b}-${_} $$ $$a ${} $a.b ${a"));
+
+        String plain = "no references here";
+        assertSame(plain, Util.replaceMacro(plain, resolver));
+    }
+
+    @Test
+    public void replaceMacroMatchesRegex() {
+        VariableResolver<String> resolver = sampleResolver();
+        char[] alphabet = { '$', '$', '{', '}', 'a', 'b', 'B', '1', '_', '.', '-', ' ' };
+        Random random = new Random(42);
+        for (int n = 0; n < 20000; n++) {
+            char[] chars = new char[random.nextInt(16)];
+            for (int i = 0; i < chars.length; i++)
+                chars[i] = alphabet[random.nextInt(alphabet.length)];
+            String s = new String(chars);
+            assertEquals(s, regexReplaceMacro(s, resolver), Util.replaceMacro(s, resolver));
+        }
+    }
+
+    @Test
+    public void compiledTemplateMatchesReplaceMacro() {
+        VariableResolver<String> resolver = sampleResolver();
+        String[] samples = { "", "plain", "$a-$ab-${a.b}-${_}", "$$a $B1 $nosuch ${}", "${a" };
+        for (String s : samples) {
+            assertEquals(s, Util.replaceMacro(s, resolver), CompiledTemplate.compile(s).render(resolver));
+        }
+        assertSame(CompiledTemplate.of("${a}/bin"), CompiledTemplate.of("${a}/bin"));
+        assertEquals(Arrays.asList("a", "a.b"), CompiledTemplate.of("$a:$$x:${a.b}").getVariableNames());
+        // filling the cache past its capacity only drops entries
+        for (int i = 0; i < 3000; i++)
+            assertEquals("${a}" + i, Util.replaceMacro("${a}" + i, resolver), CompiledTemplate.of("${a}" + i).render(resolver));
+    }
+
+    @Test
+    public void replaceMacroStreaming() throws IOException {
+        VariableResolver<String> resolver = sampleResolver();
+        StringBuilder big = new StringBuilder();
+        Random random = new Random(7);
+        while (big.length() < 50000) {
+            big.append("x${a.b}y$ab$$a ${nosuch}$");
+            big.append(random.nextInt(1000));
+        }
+        String[] samples = { "", "$", "${a", "$a", "$$", "$a-$ab-${a.b}-${_}", big.toString() };
+        for (String s : samples) {
+            for (int chunk = 1; chunk <= 3; chunk++) {
+                StringBuilder out = new StringBuilder();
+                Util.replaceMacro(new ChunkedReader(s, chunk), out, resolver);
+                assertEquals(Util.replaceMacro(s, resolver), out.toString());
+            }
+        }
+    }
+
+    /**
+     * Returns at most the given number of characters per read, to exercise buffer boundaries.
+     */
+    private static final class ChunkedReader extends StringReader {
+        private final int chunk;
+
+        ChunkedReader(String s, int chunk) {
+            super(s);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            return super.read(cbuf, off, Math.min(len, chunk));
+        }
+    }
+
+    @Test
+    public void memoizingResolver() {
+        final int[] calls = new int[1];
+        VariableResolver<String> counting = new VariableResolver<String>() {
+            public String resolve(String name) {
+                calls[0]++;
+                return name.equals("a") ? "A" : null;
+            }
+        };
+        VariableResolver.Memoizing<String> memo = new VariableResolver.Memoizing<String>(counting);
+        assertEquals("A A $b $b", Util.replaceMacro("$a $a $b $b", memo));
+        assertEquals(2, calls[0]);
+        assertEquals(2, memo.getHitCount());
+        assertEquals(2, memo.getMissCount());
+        assertEquals(0.5, memo.getHitRate(), 0);
+
+        memo.invalidate("a");
+        assertEquals("A", memo.resolve("a"));
+        assertEquals(3, calls[0]);
+
+        memo.close();
+        assertEquals(null, memo.resolve("b"));
+        assertEquals(4, calls[0]);
+    }
+
+    @Test
+    public void filteredUnion() {
+        EnvVars layer = new EnvVars();
+        for (int i = 0; i < 1000; i++)
+            layer.put("LAYER_" + i, "l" + i);
+        EnvVars base = new EnvVars("PATH", "/bin", "HOME", "/home");
+        List<VariableResolver<String>> resolvers = new ArrayList<VariableResolver<String>>();
+        resolvers.add(new VariableResolver.ByMap<String>(layer));
+        resolvers.add(new VariableResolver.ByMap<String>(base));
+
+        VariableResolver.Union<String> union = new VariableResolver.Union<String>(resolvers).withFilters(true);
+        assertEquals("l7:/bin:/home:$NOSUCH", Util.replaceMacro("${LAYER_7}:$Path:$HOME:$NOSUCH", union));
+
+        for (int i = 0; i < 10000; i++)
+            assertEquals("/bin", union.resolve("PATH"));
+        assertTrue(union.getSkipCount(0) > 9000);
+        assertTrue(union.getFalsePositiveRate(0) < 0.05);
+
+        // the filters follow later changes of the maps
+        layer.put("PATH", "/layer");
+        assertEquals("/layer", union.resolve("path"));
+        layer.remove("PATH");
+        base.put("LATE", "late");
+        assertEquals("/bin:late", Util.replaceMacro("$PATH:$LATE", union));
+
+        VariableResolver.Union<String> quiet = new VariableResolver.Union<String>(resolvers).withFilters();
+        assertEquals("/bin", quiet.resolve("PATH"));
+        assertEquals(0, quiet.getSkipCount(0));
+    }
+}